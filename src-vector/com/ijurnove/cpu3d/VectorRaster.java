@@ -0,0 +1,135 @@
+package com.ijurnove.cpu3d;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// draws the depth of a triangle along one row of a shadow map, a full vector of pixels at a time. uses the incubating
+// Vector API, so it is compiled on its own and only loaded by Util when the module is present
+final class VectorRaster implements VectorDepthTest {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = DOUBLES.length();
+
+    // how far each lane is from the first pixel of its vector
+    private static final DoubleVector LANE_OFFSETS = DoubleVector.zero(DOUBLES).addIndex(1);
+    private static final DoubleVector ONES = DoubleVector.broadcast(DOUBLES, 1);
+
+    // created through reflection by Util
+    VectorRaster() { }
+
+    // coverage is tested on the weight numerators, which are worked out the same way as in DrawList.barycentricCoords()
+    // and flipped to the denominator's sign, so no pixel needs dividing. checking a mask from scalar code is slow, so every
+    // vector is tested and stored without branching, and the vectors only cover the part of the row near the triangle
+    @Override
+    public void drawRow(double[] coords, int t, int row, int firstCol, int lastCol, double[] depth) {
+        double x1 = coords[t], y1 = coords[t + 1], z1 = coords[t + 2];
+        double x2 = coords[t + 3], y2 = coords[t + 4], z2 = coords[t + 5];
+        double x3 = coords[t + 6], y3 = coords[t + 7], z3 = coords[t + 8];
+
+        double v2yMinusV3y = y2 - y3;
+        double v3xMinusV2x = x3 - x2;
+        double v3yMinusV1y = y3 - y1;
+        double v1xMinusV3x = x1 - x3;
+        double denominator = (v2yMinusV3y * v1xMinusV3x) + (v3xMinusV2x * (y1 - y3));
+
+        // each numerator is (step * (pX - x3)) + rowPart, and is at least 0 inside the triangle
+        double sign = denominator < 0 ? -1 : 1;
+        double pYMinusV3y = row - y3;
+
+        double step1 = sign * v2yMinusV3y;
+        double step2 = sign * v3yMinusV1y;
+        double rowPart1 = sign * (v3xMinusV2x * pYMinusV3y);
+        double rowPart2 = sign * (v1xMinusV3x * pYMinusV3y);
+        double area = sign * denominator;
+        double inverseArea = 1 / area;
+
+        // the columns where every numerator could be at least 0, a pixel wider on each side than they work out to, as
+        // the masks below are what decide coverage
+        double lowest = firstCol;
+        double highest = lastCol;
+        for (int n = 0; n < 3; n++) {
+            double step = n == 0 ? step1 : (n == 1 ? step2 : -1 * (step1 + step2));
+            double rowPart = n == 0 ? rowPart1 : (n == 1 ? rowPart2 : area - rowPart1 - rowPart2);
+
+            if (step > 0) {
+                lowest = Math.max(lowest, Math.floor(x3 - (rowPart / step)) - 1);
+            } else if (step < 0) {
+                highest = Math.min(highest, Math.ceil(x3 - (rowPart / step)) + 1);
+            } else if (rowPart < 0) {
+                return;
+            }
+        }
+
+        if (!(lowest <= highest)) {
+            return;
+        }
+
+        int lo = (int) lowest;
+        int hi = (int) highest;
+
+        if (lastCol - firstCol + 1 < LANES) {
+            // too short for a single vector
+            for (int col = lo; col <= hi; col++) {
+                drawPixel(depth, col, x3, step1, step2, rowPart1, rowPart2, area, inverseArea, z1, z2, z3);
+            }
+            return;
+        }
+
+        DoubleVector areas = DoubleVector.broadcast(DOUBLES, area);
+
+        // vectors never reach outside firstCol to lastCol. the last one is moved back to end at hi, and the pixels it
+        // shares with the one before come out the same both times
+        int col = Math.min(lo, lastCol - LANES + 1);
+        while (true) {
+            DoubleVector pXMinusV3x = LANE_OFFSETS.add(col).sub(x3);
+
+            DoubleVector numerator1 = pXMinusV3x.mul(step1).add(rowPart1);
+            DoubleVector numerator2 = pXMinusV3x.mul(step2).add(rowPart2);
+            DoubleVector numerator3 = areas.sub(numerator1).sub(numerator2);
+
+            DoubleVector w1 = numerator1.mul(inverseArea);
+            DoubleVector w2 = numerator2.mul(inverseArea);
+            DoubleVector w3 = ONES.sub(w1).sub(w2);
+
+            DoubleVector z = w1.mul(z1).add(w2.mul(z2)).add(w3.mul(z3));
+            DoubleVector pixelDepth = DoubleVector.fromArray(DOUBLES, depth, col);
+
+            VectorMask<Double> closer = numerator1.compare(VectorOperators.GE, 0)
+                .and(numerator2.compare(VectorOperators.GE, 0))
+                .and(numerator3.compare(VectorOperators.GE, 0))
+                .and(z.compare(VectorOperators.GT, 0))
+                .and(z.compare(VectorOperators.LT, pixelDepth));
+
+            pixelDepth.blend(z, closer).intoArray(depth, col);
+
+            if (col + LANES > hi) {
+                break;
+            }
+            col = Math.min(col + LANES, hi - LANES + 1);
+        }
+    }
+
+    // a single lane of the vector loop above, with the same operations in the same order
+    private static void drawPixel(
+        double[] depth, int col, double x3, double step1, double step2, double rowPart1, double rowPart2, double area, double inverseArea,
+        double z1, double z2, double z3
+    ) {
+        double pXMinusV3x = col - x3;
+
+        double numerator1 = (pXMinusV3x * step1) + rowPart1;
+        double numerator2 = (pXMinusV3x * step2) + rowPart2;
+        double numerator3 = area - numerator1 - numerator2;
+
+        if (numerator1 >= 0 && numerator2 >= 0 && numerator3 >= 0) {
+            double w1 = numerator1 * inverseArea;
+            double w2 = numerator2 * inverseArea;
+            double w3 = 1 - w1 - w2;
+
+            double z = (w1 * z1) + (w2 * z2) + (w3 * z3);
+
+            if (z > 0 && z < depth[col]) {
+                depth[col] = z;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.ijurnove.cpu3d;
+
+// a bounding sphere and an axis aligned bounding box around a set of points. meshes keep one in object space, fitted
+// to their vertices, and shapes keep one in world space, moved along with their model transform
+class Bounds {
+    private final double[] min = new double[3];
+    private final double[] max = new double[3];
+
+    private final double[] center = new double[3];
+    private double radius = 0;
+
+    // fits the bounds to every point in positions, stored as x, y, z
+    protected void fit(double[] positions) {
+        for (int axis = 0; axis < 3; axis++) {
+            min[axis] = Double.POSITIVE_INFINITY;
+            max[axis] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int p = 0; p < positions.length; p += 3) {
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], positions[p + axis]);
+                max[axis] = Math.max(max[axis], positions[p + axis]);
+            }
+        }
+
+        for (int axis = 0; axis < 3; axis++) {
+            center[axis] = (min[axis] + max[axis]) / 2;
+        }
+
+        double radiusSquared = 0;
+        for (int p = 0; p < positions.length; p += 3) {
+            double dx = positions[p] - center[0];
+            double dy = positions[p + 1] - center[1];
+            double dz = positions[p + 2] - center[2];
+
+            radiusSquared = Math.max(radiusSquared, (dx * dx) + (dy * dy) + (dz * dz));
+        }
+
+        this.radius = Math.sqrt(radiusSquared);
+    }
+
+    // sets these bounds to objectBounds moved by a model transform with a uniform scale. the box is refitted around
+    // the moved corners of the object space box, so it never has to look at the vertices
+    protected void transform(Bounds objectBounds, Matrix4 model, double scale) {
+        double[] corner = new double[3];
+
+        for (int axis = 0; axis < 3; axis++) {
+            min[axis] = Double.POSITIVE_INFINITY;
+            max[axis] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            corner[0] = (i & 1) == 0 ? objectBounds.min[0] : objectBounds.max[0];
+            corner[1] = (i & 2) == 0 ? objectBounds.min[1] : objectBounds.max[1];
+            corner[2] = (i & 4) == 0 ? objectBounds.min[2] : objectBounds.max[2];
+            model.transformPosition(corner, 0);
+
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], corner[axis]);
+                max[axis] = Math.max(max[axis], corner[axis]);
+            }
+        }
+
+        System.arraycopy(objectBounds.center, 0, center, 0, 3);
+        model.transformPosition(center, 0);
+        this.radius = objectBounds.radius * Math.abs(scale);
+    }
+
+    protected void set(Bounds bounds) {
+        System.arraycopy(bounds.min, 0, min, 0, 3);
+        System.arraycopy(bounds.max, 0, max, 0, 3);
+        System.arraycopy(bounds.center, 0, center, 0, 3);
+        this.radius = bounds.radius;
+    }
+
+    protected double minValue(int axis) { return this.min[axis]; }
+    protected double maxValue(int axis) { return this.max[axis]; }
+    protected double centerValue(int axis) { return this.center[axis]; }
+    protected double radius() { return this.radius; }
+}
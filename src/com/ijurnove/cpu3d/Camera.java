@@ -15,7 +15,7 @@ public class Camera implements Translatable, Rotatable, Scalable {
     private Vector3d lineOfSight;
     
     // matrix used for vertical rotation during rendering
-    private final Matrix vertRotMatrix = new Matrix(new double[][] {
+    private final Matrix4 vertRotMatrix = new Matrix4(new double[][] {
         {-1, 0, -1, 0}, // cos(-phi), 0, -sin(-phi), 0
         {0, 1, 0, 0}, // 0, 1, 0, 0
         {-1, 0, -1, 0}, // sin(-phi), 0, cos(-phi), 0
@@ -23,7 +23,7 @@ public class Camera implements Translatable, Rotatable, Scalable {
     });
 
     // matrix used for hortizontal rotation during rendering
-    private final Matrix horRotMatrix = new Matrix(new double[][] {
+    private final Matrix4 horRotMatrix = new Matrix4(new double[][] {
         {-1, -1, 0, 0}, // cos(-theta), -sin(-theta), 0, 0
         {-1, -1, 0, 0}, // sin(-theta), cos(-theta), 0, 0
         {0, 0, 1, 0}, // 0, 0, 1, 0
@@ -31,29 +31,25 @@ public class Camera implements Translatable, Rotatable, Scalable {
     });
 
     // matrix used for position offset during rendering
-    private final Matrix posOffsetMatrix = new Matrix(new double[][] {
+    private final Matrix4 posOffsetMatrix = new Matrix4(new double[][] {
         {1, 0, 0, -1}, // 1, 0, 0, camX
         {0, 1, 0, -1}, // 0, 1, 0, camY
         {0, 0, 1, -1}, // 0, 0, 1, camZ
         {0, 0, 0, 0} // 0, 0, 0, 0
     });
 
-    // t/b = top/bottom
-    // r/l = right/left
-    // f/n = front/back
+    // posOffsetMatrix, AXIS_CONV_MATRIX, horRotMatrix and vertRotMatrix combined, with the X and Y of the result swapped.
+    // rebuilt in tick(), so projecting a point is a single matrix-vector product
+    private final Matrix4 viewMatrix = new Matrix4();
 
-    private final Matrix orthographicMatrix = new Matrix(new double[][] {
-        {1, 0, 0, 1},
-        {0, 1, 0, 1},
-        {0, 0, 1, 1},
-        {0, 0, 0, 1}
-    });
-    // private final Matrix orthoMatrix = new Matrix(new double[][] {
-    // {2/(r-l), 0, 0, -((r+l)/(r-l))},
-    // {0, 2/(t-b), 0, -((t+b)/t-b))},
-    // {0, 0, -2/(f-n), -((f+n)/(f-n))},
-    // {0, 0, 0, 1}
-    //})
+    // view matrix used when this camera draws a point light's shadow map, rebuilt by updateShadowMatrices() only once
+    // the camera has moved. the position and rotation it was built for are kept to tell
+    private final Matrix4 lookAtMatrix = new Matrix4();
+    private double shadowX = Double.NaN;
+    private double shadowY = Double.NaN;
+    private double shadowZ = Double.NaN;
+    private double shadowPhi = Double.NaN;
+    private double shadowTheta = Double.NaN;
 
     protected Camera(Scene parent, Point3d pos, double phi, double theta, double fov) {
         this.parent = parent;
@@ -107,12 +103,11 @@ public class Camera implements Translatable, Rotatable, Scalable {
      */
     public Scene getParent() { return this.parent; }
 
-    protected Matrix getVertRotMatrix() { return this.vertRotMatrix; }
-    protected Matrix getHorRotMatrix() { return this.horRotMatrix; }
-    protected Matrix getPosOffsetMatrix() { return this.posOffsetMatrix; }
-    protected Matrix getOrthoMatrix() { return this.orthographicMatrix; }
-
-    protected Matrix getPosMatrix() { return this.pos.getMatrix(); }
+    protected Matrix4 getVertRotMatrix() { return this.vertRotMatrix; }
+    protected Matrix4 getHorRotMatrix() { return this.horRotMatrix; }
+    protected Matrix4 getPosOffsetMatrix() { return this.posOffsetMatrix; }
+    protected Matrix4 getViewMatrix() { return this.viewMatrix; }
+    protected Matrix4 getLookAtMatrix() { return this.lookAtMatrix; }
 
     /**
      * Sets the vertical rotation. (In radians)
@@ -157,22 +152,6 @@ public class Camera implements Translatable, Rotatable, Scalable {
         this.lineOfSight = new Vector3d(Util.sphereToCartesian(1, theta, phi));
     }
 
-    protected void updateOrthoMatrix(double l, double r, double b, double t, double n, double f) {
-        orthographicMatrix.setValue(0, 0, 2/(r-l));
-        orthographicMatrix.setValue(1, 1, 2/(t-b));
-        orthographicMatrix.setValue(2, 2, -2/(f-n));
-
-        orthographicMatrix.setValue(3, 0, 
-            -((r+l) / (r-l))
-        );
-        orthographicMatrix.setValue(3, 1, 
-            -((t+b) / (t-b))
-        );
-        orthographicMatrix.setValue(3, 2, 
-            -((f+n) / (f-n))
-        );
-    }
-
     private void updateVertRotMatrix() {
         this.vertRotMatrix.setValue(0, 0, cos(-1 * phi));
         this.vertRotMatrix.setValue(2, 0, -1 * sin(-1 * phi));
@@ -188,15 +167,25 @@ public class Camera implements Translatable, Rotatable, Scalable {
     }
 
     private void updatePosOffsetMatrix() {
-        this.posOffsetMatrix.setValue(3, 0, pos.getMatrix().getValue(0, 0));
-        this.posOffsetMatrix.setValue(3, 1, pos.getMatrix().getValue(0, 1));
-        this.posOffsetMatrix.setValue(3, 2, pos.getMatrix().getValue(0, 2));
+        this.posOffsetMatrix.setValue(3, 0, pos.xReal());
+        this.posOffsetMatrix.setValue(3, 1, pos.yReal());
+        this.posOffsetMatrix.setValue(3, 2, pos.zReal());
+    }
+
+    private void updateViewMatrix() {
+        Matrix4.multiplyInto(vertRotMatrix, horRotMatrix, viewMatrix);
+        Matrix4.multiplyInto(viewMatrix, Matrix4.AXIS_CONV_MATRIX, viewMatrix);
+        Matrix4.multiplyInto(viewMatrix, posOffsetMatrix, viewMatrix);
+
+        // screen X comes from the camera's Y and the other way around
+        viewMatrix.swapRows(0, 1);
     }
 
     private void updateMatrices() {
         this.updateVertRotMatrix();
         this.updateHorRotMatrix();
         this.updatePosOffsetMatrix();
+        this.updateViewMatrix();
     }
 
     protected void tick() {
@@ -204,7 +193,7 @@ public class Camera implements Translatable, Rotatable, Scalable {
         this.updateLineOfSight();
     }
 
-    protected Matrix lookAtWithLineOfSight() {
+    protected Matrix4 lookAtWithLineOfSight() {
         updateLineOfSight();
 
         Vector3d fwdVec = this.lineOfSight.copy();
@@ -217,23 +206,27 @@ public class Camera implements Translatable, Rotatable, Scalable {
         Vector3d upVec = Vector3d.crossProduct(fwdVec, rightVec);
         upVec.normalize();
 
-        return Matrix.lookAt(rightVec, upVec, fwdVec, this.pos);
+        return new Matrix4(Matrix.lookAt(rightVec, upVec, fwdVec, this.pos).getValues());
     }
 
-    protected Matrix lookAtMatrixToOrigin() {
-        updateLineOfSight();
+    // rebuilds lookAtWithLineOfSight() if the camera has moved or turned since it was last built. returns true if it was rebuilt
+    protected boolean updateShadowMatrices() {
+        if (
+            pos.xReal() == shadowX && pos.yReal() == shadowY && pos.zReal() == shadowZ &&
+            phi == shadowPhi && theta == shadowTheta
+        ) {
+            return false;
+        }
 
-        Vector3d fwdVec = new Vector3d(pos, Point3d.ORIGIN);
-        fwdVec.normalize();
-        fwdVec.invert();
+        this.shadowX = pos.xReal();
+        this.shadowY = pos.yReal();
+        this.shadowZ = pos.zReal();
+        this.shadowPhi = phi;
+        this.shadowTheta = theta;
 
-        Vector3d rightVec = Vector3d.crossProduct(fwdVec, Vector3d.UP);
-        rightVec.normalize();
-
-        Vector3d upVec = Vector3d.crossProduct(fwdVec, rightVec);
-        upVec.normalize();
+        lookAtMatrix.setValues(lookAtWithLineOfSight());
 
-        return Matrix.lookAt(rightVec, upVec, fwdVec, this.pos);
+        return true;
     }
 
     public void inputTick() {
@@ -269,9 +262,7 @@ public class Camera implements Translatable, Rotatable, Scalable {
         this.phi += vert;
         this.theta += hor;
 
-        this.pos.getMatrix().setValue(0, 0, pos.getMatrix().getValue(0, 0) + xMov);
-        this.pos.getMatrix().setValue(0, 1, pos.getMatrix().getValue(0, 1) + yMov);
-        this.pos.getMatrix().setValue(0, 2, pos.getMatrix().getValue(0, 2) + zMov);
+        this.pos.translate(xMov, yMov, zMov);
 
         if (phi > Math.PI)
             phi = Math.PI;
@@ -6,13 +6,44 @@ import java.awt.image.DataBufferInt;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.Math.pow;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.stream.IntStream;
 
 class ColorMap {
-    private Pixel[][] screen;
+    private static final float MAX_DEPTH = 9999;
+
+    // width and height of the pixel blocks used to skip hidden parts of triangles
+    private static final int DEPTH_BLOCK_SIZE = 8;
+
+    // height of the row strips the deferred lighting pass is split into
+    private static final int LIGHTING_STRIP_HEIGHT = 16;
+
+    // what the rasterizer writes for each pixel that passes the depth test
+    private enum FragmentOutput {
+        COLOR,
+        VISIBILITY,
+        GBUFFER
+    }
+
+    // packed ARGB values, one int per pixel, stored row by row
+    private final int[] screen;
+    private final boolean screenIsImage;
     private BufferedImage image;
-    private double[][] depthBuffer;
+    // depth values stored row by row, along with the farthest depth in each block of pixels
+    private final float[] depthBuffer;
+    private final float[] blockDepth;
+    private final int blocksAcross;
+
+    // index of the closest triangle at each pixel, only allocated once the depth pre-pass is used
+    private int[] visibleTris;
+    // surface data for deferred shading, only allocated once deferred shading is used
+    private GBuffer gBuffer;
+
+    // the triangles drawn this frame, which every tile reads from
+    private DrawList drawn;
+
     private Scene parent;
 
     private int width;
@@ -34,29 +65,53 @@ class ColorMap {
         this.imageHeight = (int) (height / parent.getInitFlag(SceneInitFlag.RESOLUTION_MULTIPLIER_UP));
 
         this.image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
-        this.screen = new Pixel[row][col];
-        this.depthBuffer = new double[row][col];
 
-        for (int r = 0; r < screen.length; r++) {
-            for (int c = 0; c < screen[0].length; c++) {
-                screen[r][c] = new Pixel();
-                depthBuffer[r][c] = 9999;
-            }
+        // when the image is the same size as the screen, pixels are written straight into its raster
+        this.screenIsImage = (imageWidth == width && imageHeight == height);
+        if (screenIsImage) {
+            this.screen = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        } else {
+            this.screen = new int[row * col];
         }
+
+        this.depthBuffer = new float[row * col];
+
+        this.blocksAcross = (col + DEPTH_BLOCK_SIZE - 1) / DEPTH_BLOCK_SIZE;
+        int blocksUp = (row + DEPTH_BLOCK_SIZE - 1) / DEPTH_BLOCK_SIZE;
+        this.blockDepth = new float[blocksAcross * blocksUp];
+
+        this.clearDepthBuffer();
         // System.out.println("width: " + screen[0].length + " height: " + screen.length);
     }
 
-    protected void drawTriangle(Triangle tri, int minX, int minY, int maxX, int maxY) {
-        Point3d v1 = tri.vrtx1();
-        Point3d v2 = tri.vrtx2();
-        Point3d v3 = tri.vrtx3();
+    protected void drawTriangle(int tri, int minX, int minY, int maxX, int maxY, LightCalc.Scratch lighting) {
+        rasterize(tri, FragmentOutput.COLOR, minX, minY, maxX, maxY, lighting);
+    }
+
+    // depth pre-pass: only fills the depth buffer, and records which triangle is visible at each pixel
+    protected void drawTriangleDepth(int tri, int minX, int minY, int maxX, int maxY) {
+        rasterize(tri, FragmentOutput.VISIBILITY, minX, minY, maxX, maxY, null);
+    }
+
+    // deferred shading: writes the surface data needed for lighting into the G-buffer instead of lighting the pixel
+    protected void drawTriangleGBuffer(int tri, int minX, int minY, int maxX, int maxY, LightCalc.Scratch lighting) {
+        rasterize(tri, FragmentOutput.GBUFFER, minX, minY, maxX, maxY, lighting);
+    }
+
+    private void rasterize(int tri, FragmentOutput output, int minX, int minY, int maxX, int maxY, LightCalc.Scratch lighting) {
+        double x1 = drawn.xRend(tri, 0);
+        double x2 = drawn.xRend(tri, 1);
+        double x3 = drawn.xRend(tri, 2);
+        double y1 = drawn.yRend(tri, 0);
+        double y2 = drawn.yRend(tri, 1);
+        double y3 = drawn.yRend(tri, 2);
 
         // bounding box corners
-        int minBoundX = (int) min(v1.xRend(), min(v2.xRend(), v3.xRend()));
-        int minBoundY = (int) min(v1.yRend(), min(v2.yRend(), v3.yRend()));
+        int minBoundX = (int) min(x1, min(x2, x3));
+        int minBoundY = (int) min(y1, min(y2, y3));
         
-        int maxBoundX = (int) max(v1.xRend(), max(v2.xRend(), v3.xRend()));
-        int maxBoundY = (int) max(v1.yRend(), max(v2.yRend(), v3.yRend()));
+        int maxBoundX = (int) max(x1, max(x2, x3));
+        int maxBoundY = (int) max(y1, max(y2, y3));
 
         // limit bounding box to thread's range
         minBoundX = max(minBoundX, minX);
@@ -65,46 +120,246 @@ class ColorMap {
         maxBoundX = min(maxBoundX, maxX);
         maxBoundY = min(maxBoundY, maxY);
 
-        // loop over bounding box
-        for (int row = minBoundY; row <= maxBoundY; row++) {
-            for (int col = minBoundX; col <= maxBoundX; col++) {
-                double[] bary = tri.barycentricCoords(col, row);
-
-                if ((bary[0] >= 0) && (bary[1] >= 0) && (bary[2] >= 0)) {
-                    if (parent.getFlag(SceneFlag.WIREFRAME) != 1) {
-                        double pointZ = Util.baryInterpolate(bary, v1.depth(), v2.depth(), v3.depth());
-
-                        if (pointZ > 0 && pointZ < depthBuffer[row][col]) {
-                            depthBuffer[row][col] = pointZ;
-                            
-                            int[] colors = readTexture(tri, bary);
-                            
-                            doPhong(parent.getViewCamera(), tri, bary, colors, row, col);
-                        } 
-                    } else {
-                        if ((bary[0] >= 0 && bary[0] <= 0.025) || (bary[1] >= 0 && bary[1] <= 0.025) || (bary[2] >= 0 && bary[2] <= 0.025)) {
-                            this.setPixel(row, col, 0, 255, 0);
+        if (!drawn.hasScreenArea(tri)) {
+            return;
+        }
+
+        boolean wireframe = parent.getFlag(SceneFlag.WIREFRAME) == 1;
+
+        // no point on the triangle can be closer than its closest vertex
+        double nearestDepth = min(drawn.depth(tri, 0), min(drawn.depth(tri, 1), drawn.depth(tri, 2)));
+
+        // edge function setup - weights are evaluated once at the top left of the bounding box,
+        // then stepped by constant deltas so nothing is allocated inside the pixel loop
+        double[] bary = new double[3];
+        drawn.barycentricCoords(tri, minBoundX, minBoundY, bary);
+
+        double originW1 = bary[0];
+        double originW2 = bary[1];
+
+        double w1StepX = drawn.bary1StepX(tri);
+        double w1StepY = drawn.bary1StepY(tri);
+        double w2StepX = drawn.bary2StepX(tri);
+        double w2StepY = drawn.bary2StepY(tri);
+
+        // loop over the depth blocks overlapping the bounding box
+        for (int blockRow = minBoundY / DEPTH_BLOCK_SIZE; blockRow <= maxBoundY / DEPTH_BLOCK_SIZE; blockRow++) {
+            for (int blockCol = minBoundX / DEPTH_BLOCK_SIZE; blockCol <= maxBoundX / DEPTH_BLOCK_SIZE; blockCol++) {
+                int block = (blockRow * blocksAcross) + blockCol;
+
+                // every pixel in this block is already closer than the entire triangle
+                if (!wireframe && nearestDepth >= blockDepth[block]) {
+                    continue;
+                }
+
+                int startRow = max(blockRow * DEPTH_BLOCK_SIZE, minBoundY);
+                int endRow = min((blockRow * DEPTH_BLOCK_SIZE) + DEPTH_BLOCK_SIZE - 1, maxBoundY);
+                int startCol = max(blockCol * DEPTH_BLOCK_SIZE, minBoundX);
+                int endCol = min((blockCol * DEPTH_BLOCK_SIZE) + DEPTH_BLOCK_SIZE - 1, maxBoundX);
+
+                double rowW1 = originW1 + (w1StepX * (startCol - minBoundX)) + (w1StepY * (startRow - minBoundY));
+                double rowW2 = originW2 + (w2StepX * (startCol - minBoundX)) + (w2StepY * (startRow - minBoundY));
+
+                boolean depthWritten = false;
+
+                for (int row = startRow; row <= endRow; row++) {
+                    double w1 = rowW1;
+                    double w2 = rowW2;
+
+                    for (int col = startCol; col <= endCol; col++) {
+                        bary[0] = w1;
+                        bary[1] = w2;
+                        bary[2] = 1 - w1 - w2;
+
+                        w1 += w1StepX;
+                        w2 += w2StepX;
+
+                        if (wireframe) {
+                            drawWireframeFragment(tri, bary, row, col);
+                        } else {
+                            depthWritten |= drawFragment(tri, output, bary, row, col, lighting);
                         }
                     }
+
+                    rowW1 += w1StepY;
+                    rowW2 += w2StepY;
+                }
+
+                if (depthWritten) {
+                    updateBlockDepth(blockRow, blockCol);
                 }
             }
         }
     }
 
-    private void doPhong(Camera camera, Triangle tri, double[] bary, int[] colors, int row, int col) {
-        Point3d point = tri.point3dFromBary(bary);
-        double[] lightValues = LightCalc.phongLighting(camera, point, Vector3d.fromBary(tri.getPointNormals(), bary), parent, tri.getMaterial(), tri.getParent());
+    // stepping accumulates rounding error, so pixels lying on an edge are re-evaluated
+    // exactly to keep coverage identical between neighbouring triangles
+    private void exactNearEdges(int tri, double[] bary, int row, int col) {
+        if (Math.abs(bary[0]) < Triangle.EDGE_EPSILON || Math.abs(bary[1]) < Triangle.EDGE_EPSILON || Math.abs(bary[2]) < Triangle.EDGE_EPSILON) {
+            drawn.barycentricCoords(tri, col, row, bary);
+        }
+    }
+
+    // draws a pixel if it is inside the triangle and closer than what is already there, returns true if the depth buffer was written
+    private boolean drawFragment(int tri, FragmentOutput output, double[] bary, int row, int col, LightCalc.Scratch lighting) {
+        exactNearEdges(tri, bary, row, col);
 
-        for (int i = 0; i < 3; i++) {
-            colors[i] *= lightValues[i];
+        if ((bary[0] < 0) || (bary[1] < 0) || (bary[2] < 0)) {
+            return false;
+        }
+
+        double pointZ = Util.baryInterpolate(bary, drawn.depth(tri, 0), drawn.depth(tri, 1), drawn.depth(tri, 2));
+        int index = (row * width) + col;
+
+        if (!(pointZ > 0 && pointZ < depthBuffer[index])) {
+            return false;
+        }
+
+        depthBuffer[index] = (float) pointZ;
+
+        switch (output) {
+            case COLOR -> {
+                int[] colors = readTexture(tri, bary);
+                
+                doPhong(tri, bary, colors, row, col, lighting);
+            }
+            case VISIBILITY -> visibleTris[index] = tri;
+            case GBUFFER -> writeGBuffer(tri, bary, row, col, lighting);
+        }
+
+        return true;
+    }
+
+    private void drawWireframeFragment(int tri, double[] bary, int row, int col) {
+        exactNearEdges(tri, bary, row, col);
+
+        if ((bary[0] >= 0) && (bary[1] >= 0) && (bary[2] >= 0)) {
+            if ((bary[0] >= 0 && bary[0] <= 0.025) || (bary[1] >= 0 && bary[1] <= 0.025) || (bary[2] >= 0 && bary[2] <= 0.025)) {
+                this.setPixel(row, col, 0, 255, 0);
+            }
+        }
+    }
+
+    // recalculates the farthest depth within a block after pixels in it have been drawn
+    private void updateBlockDepth(int blockRow, int blockCol) {
+        int startRow = blockRow * DEPTH_BLOCK_SIZE;
+        int endRow = min(startRow + DEPTH_BLOCK_SIZE, height);
+        int startCol = blockCol * DEPTH_BLOCK_SIZE;
+        int endCol = min(startCol + DEPTH_BLOCK_SIZE, width);
+
+        float farthest = 0;
+        for (int row = startRow; row < endRow; row++) {
+            for (int col = startCol; col < endCol; col++) {
+                farthest = Math.max(farthest, depthBuffer[(row * width) + col]);
+            }
+        }
+
+        blockDepth[(blockRow * blocksAcross) + blockCol] = farthest;
+    }
+
+    // second half of the depth pre-pass: shades each pixel once, using the triangle left visible there
+    protected void shadeVisible(int minX, int minY, int maxX, int maxY, LightCalc.Scratch lighting) {
+        double[] bary = new double[3];
+
+        for (int row = minY; row <= maxY; row++) {
+            for (int col = minX; col <= maxX; col++) {
+                int tri = visibleTris[(row * width) + col];
+
+                if (tri < 0) {
+                    continue;
+                }
+
+                drawn.barycentricCoords(tri, col, row, bary);
+
+                int[] colors = readTexture(tri, bary);
+
+                doPhong(tri, bary, colors, row, col, lighting);
+            }
+        }
+    }
+
+    private void writeGBuffer(int tri, double[] bary, int row, int col, LightCalc.Scratch lighting) {
+        int index = (row * width) + col;
+        int materialId = gBuffer.triangleMaterial(tri);
+        int[] colors = readTexture(tri, bary);
+
+        // surfaces that aren't lit are final as soon as they are drawn
+        if (materialId == GBuffer.NO_LIGHTING) {
+            setPixel(row, col, colors);
+            gBuffer.writeUnlit(index);
+        } else {
+            Matrix4 model = drawn.shape(tri).getModel();
+            drawn.triangle(tri).point3dFromBary(bary, model, lighting.point);
+            drawn.triangle(tri).normalFromBary(bary, model, lighting.normal);
+
+            gBuffer.write(index, materialId, lighting.point, lighting.normal, argbIntValue(colors[0], colors[1], colors[2]));
+        }
+    }
+
+    // deferred lighting pass: lights every pixel in the G-buffer, split into row strips that run in parallel
+    protected void lightGBuffer() {
+        int strips = (height + LIGHTING_STRIP_HEIGHT - 1) / LIGHTING_STRIP_HEIGHT;
+
+        IntStream.range(0, strips).parallel().forEach(strip -> {
+            int endRow = min((strip + 1) * LIGHTING_STRIP_HEIGHT, height);
+            LightCalc.Scratch lighting = new LightCalc.Scratch();
+
+            for (int row = strip * LIGHTING_STRIP_HEIGHT; row < endRow; row++) {
+                lightRow(row, lighting);
+            }
+        });
+    }
+
+    private void lightRow(int row, LightCalc.Scratch lighting) {
+        int[] colors = new int[3];
+        double[] lightValues = lighting.intensities;
+
+        for (int col = 0; col < width; col++) {
+            int index = (row * width) + col;
+            int materialId = gBuffer.materialId(index);
+
+            if (materialId == GBuffer.NO_LIGHTING) {
+                continue;
+            }
+
+            gBuffer.position(index, lighting.point);
+            gBuffer.normal(index, lighting.normal);
+            LightCalc.phongLighting(parent, lighting.point, lighting.normal[0], lighting.normal[1], lighting.normal[2], gBuffer.getMaterial(materialId), lightValues);
+
+            int rgb = gBuffer.albedo(index);
+            colors[0] = rgb >> 16 & 0xff;
+            colors[1] = rgb >> 8 & 0xff;
+            colors[2] = rgb & 0xff;
+
+            for (int i = 0; i < 3; i++) {
+                colors[i] *= lightValues[i];
+            }
+
+            setPixel(row, col, colors);
+        }
+    }
+
+    private void doPhong(int tri, double[] bary, int[] colors, int row, int col, LightCalc.Scratch lighting) {
+        Shape3d shape = drawn.shape(tri);
+
+        if (LightCalc.receivesLighting(parent, shape)) {
+            double[] lightValues = lighting.intensities;
+
+            drawn.triangle(tri).point3dFromBary(bary, shape.getModel(), lighting.point);
+            drawn.triangle(tri).normalFromBary(bary, shape.getModel(), lighting.normal);
+            LightCalc.phongLighting(parent, lighting.point, lighting.normal[0], lighting.normal[1], lighting.normal[2], shape.getMaterial(), lightValues);
+
+            for (int i = 0; i < 3; i++) {
+                colors[i] *= lightValues[i];
+            }
         }
 
         setPixel(row, col, colors);
     }
 
-    private int[] readTexture(Triangle tri, double[] bary) {
-        UV[] textureCoords = tri.getTextureCoords();
-        BufferedImage texture = tri.getTexture();
+    private int[] readTexture(int tri, double[] bary) {
+        UV[] textureCoords = drawn.triangle(tri).getTextureCoords();
+        BufferedImage texture = drawn.shape(tri).getTexture();
 
         int textureWidth = texture.getWidth();
         int textureHeight = texture.getHeight();
@@ -212,7 +467,11 @@ class ColorMap {
             endColors = new int[] {red, green, blue};
         }
 
-        screen[row][col].setValues(clamp(endColors[0], 0, 255), clamp(endColors[1], 0, 255), clamp(endColors[2], 0, 255));
+        screen[(row * width) + col] = argbIntValue(clamp(endColors[0], 0, 255), clamp(endColors[1], 0, 255), clamp(endColors[2], 0, 255));
+    }
+
+    private static int argbIntValue(int red, int green, int blue) {
+        return 0xFF000000 | ((0xFF & red) << 16) | ((0xFF & green) << 8) | (0xFF & blue);
     }
 
     private static int clamp(int val, int minVal, int maxVal) {
@@ -222,11 +481,7 @@ class ColorMap {
     protected void setPixel(int row, int col, int[] values) { setPixel(row, col, values[0], values[1], values[2]); }
 
     protected void reset(int red, int green, int blue) {
-        for (Pixel[] row : screen) {
-            for (Pixel p : row) {
-                p.setValues(red, green, blue);
-            }
-        }
+        Arrays.fill(screen, argbIntValue(red, green, blue));
     }
 
     protected void reset(int[] rgb) {
@@ -238,22 +493,50 @@ class ColorMap {
     }
 
     protected void clearDepthBuffer() {
-        for (double[] depthBuffer1 : depthBuffer) {
-            for (int col = 0; col < depthBuffer[0].length; col++) {
-                depthBuffer1[col] = 9999;
+        Arrays.fill(depthBuffer, MAX_DEPTH);
+        Arrays.fill(blockDepth, MAX_DEPTH);
+    }
+
+    // clears the buffers used by the shading mode, allocating them the first time it is used
+    protected void prepareShading(RenderTask.ShadingMode mode, DrawList drawn) {
+        this.drawn = drawn;
+
+        switch (mode) {
+            case DEPTH_PREPASS -> {
+                if (visibleTris == null) {
+                    visibleTris = new int[width * height];
+                }
+
+                Arrays.fill(visibleTris, -1);
             }
+            case DEFERRED -> {
+                if (gBuffer == null) {
+                    gBuffer = new GBuffer(width, height);
+                }
+
+                gBuffer.clear();
+                gBuffer.prepare(drawn, parent);
+            }
+            default -> { }
         }
     }
 
     protected void updateImage() {
+        // the image already holds the final pixels
+        if (screenIsImage) {
+            return;
+        }
+
         int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 
+        double multiplierUp = parent.getInitFlag(SceneInitFlag.RESOLUTION_MULTIPLIER_UP);
+        double multiplierAcross = parent.getInitFlag(SceneInitFlag.RESOLUTION_MULTIPLIER_ACROSS);
+
         for (int row = 0; row < imageHeight; row++) {
+            int screenRowStart = (int) (row * multiplierUp) * width;
+
             for (int col = 0; col < imageWidth; col++) {
-                pixels[(row * imageWidth) + col] = screen
-                    [(int) (row * parent.getInitFlag(SceneInitFlag.RESOLUTION_MULTIPLIER_UP))]
-                    [(int) (col * parent.getInitFlag(SceneInitFlag.RESOLUTION_MULTIPLIER_ACROSS))]
-                    .argbIntValue();
+                pixels[(row * imageWidth) + col] = screen[screenRowStart + (int) (col * multiplierAcross)];
             }
         }
     }
@@ -273,38 +556,6 @@ class ColorMap {
         }
     }
 
-    protected static class Pixel {
-        private int red;
-        private int green;
-        private int blue;
-
-        protected Pixel() {
-            this.red = 0;
-            this.green = 0;
-            this.blue = 0;
-        }
-
-        protected Pixel(int red, int green, int blue) {
-            this.red = red;
-            this.green = green;
-            this.blue = blue;
-        }
-
-        protected void setValues(int red, int green, int blue) {
-            this.red = red;
-            this.green = green;
-            this.blue = blue;
-        }
-
-        protected void setValues(int[] values) {
-            setValues(values[0], values[1], values[2]);
-        }
-
-        protected int argbIntValue() {
-            return 0xFF000000 | ((0xFF & red) << 16) | ((0xFF & green) << 8) | (0xFF & blue);
-        }
-    }
-
     protected static class TextMap {
         private static int[][] SPACE_INT = new int[][] {
             {0,0,0,0,0},
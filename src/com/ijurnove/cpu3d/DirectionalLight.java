@@ -1,4 +1,5 @@
 package com.ijurnove.cpu3d;
+import java.util.List;
 /**
  * DirectionalLight is a Light with a direction but no specific position. A DirectionalLight casts light
  * over the entire scene in the direction of the specified Vector3d. 
@@ -6,7 +7,7 @@ package com.ijurnove.cpu3d;
 public class DirectionalLight extends Light implements Rotatable {
     private final Vector3d direction;
     private Camera camera;
-    private ShadowMap shadowMap;
+    private ShadowCascades shadowCascades;
     /**
      * Constructs a <code>DirectionalLight</code> with the specified direction and <code>PhongComponents</code>.
      * @param direction the direction of the light
@@ -19,21 +20,19 @@ public class DirectionalLight extends Light implements Rotatable {
 
     @Override
     protected void init() {
+        // the cascades fit their own views to the scene's camera every frame, this camera only ties their maps to the scene
         this.camera = new Camera(this.getParent(), new Point3d(0, 0, 0), 0, 0, 90);
 
-        // TODO: adjust camera pos over time to cover the entire scene
-        for (int i = 0; i < 100; i++) {
-            this.camera.translate(direction);
-        }
-
-        this.shadowMap = new ShadowMap(
-            ProjectionType.ORTHOGRAPHIC, 
-            (int) this.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_ACROSS), (int) this.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_UP), 
-            this.camera
+        this.shadowCascades = new ShadowCascades(
+            this.camera,
+            (int) this.getParent().getInitFlag(SceneInitFlag.SHADOW_CASCADES),
+            (int) this.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_ACROSS), (int) this.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_UP)
         );
     }
 
     protected Camera getCamera() { return this.camera; }
+    // points towards the light, in world space. unlike a PointLight's position, X and Y are not swapped
+    protected Vector3d getDirection() { return this.direction; }
 
     // private void updateCameraDirection() {
     //     double[] cameraSphericalLookCoords = Util.cartesianToSphere(direction.x(), direction.y(), direction.z());
@@ -43,19 +42,20 @@ public class DirectionalLight extends Light implements Rotatable {
     // }
 
     @Override
-    protected void updateShadowMap() {
+    protected void updateShadowMap(List<ShadowMap> redrawn) {
         // updateCameraDirection();
-        shadowMap.updateDepthMap(this.getParent());
+        shadowCascades.update(this.getParent(), direction, redrawn);
     }
 
     @Override
     protected double shadowValue(Point3d point) {
-        return shadowMap.shadowValue(point);
+        return shadowCascades.shadowValue(this.getParent(), point);
     }
 
     @Override
     protected Vector3d lightVec(Point3d point) {
-        return direction;
+        // a copy, so whatever the caller does to it doesn't change the light
+        return direction.copy();
     }
 
     @Override
@@ -0,0 +1,114 @@
+package com.ijurnove.cpu3d;
+import java.util.Arrays;
+
+// the triangles drawn this frame, in the order they are drawn. each one is a triangle of a shared Mesh along with the shape
+// it is drawn for and the screen x, y and depth of its vertices for that shape, so a Mesh drawn by several shapes is simply
+// added once for each. the arrays are kept from frame to frame and only grow
+class DrawList {
+    // x, y and depth of each of the three vertices
+    private static final int STRIDE = 9;
+    // v2.y - v3.y, v3.x - v2.x, v3.y - v1.y, v1.x - v3.x and the denominator of the barycentric weights, on screen
+    private static final int BARY_STRIDE = 5;
+
+    private Triangle[] triangles = new Triangle[0];
+    private Shape3d[] shapes = new Shape3d[0];
+    private double[] coords = new double[0];
+    private double[] baryCache = new double[0];
+    private int size = 0;
+
+    protected void clear() {
+        // the shapes and triangles of the last frame aren't kept alive
+        Arrays.fill(triangles, 0, size, null);
+        Arrays.fill(shapes, 0, size, null);
+        this.size = 0;
+    }
+
+    protected int size() { return this.size; }
+
+    protected Triangle triangle(int t) { return this.triangles[t]; }
+    protected Shape3d shape(int t) { return this.shapes[t]; }
+
+    protected double xRend(int t, int vertex) { return coords[(t * STRIDE) + (vertex * 3)]; }
+    protected double yRend(int t, int vertex) { return coords[(t * STRIDE) + (vertex * 3) + 1]; }
+    protected double depth(int t, int vertex) { return coords[(t * STRIDE) + (vertex * 3) + 2]; }
+
+    // adds every triangle of the shape's projected vertices that is in front of the camera, and facing it if backfaces
+    // are culled. triangles outside of the screen are dropped when they are binned
+    protected void add(Shape3d shape, ProjectedVertices projected, boolean backfaceCulling) {
+        Mesh mesh = projected.getMesh();
+        Triangle[] meshTriangles = mesh.getTriangles();
+        int[] indices = mesh.getIndices();
+
+        for (int i = 0; i < meshTriangles.length; i++) {
+            int v1 = indices[i * 3];
+            int v2 = indices[(i * 3) + 1];
+            int v3 = indices[(i * 3) + 2];
+
+            if (projected.isInFront(v1, v2, v3) && (!backfaceCulling || projected.isFacingViewer(v1, v2, v3))) {
+                add(shape, meshTriangles[i], projected, v1, v2, v3);
+            }
+        }
+    }
+
+    private void add(Shape3d shape, Triangle tri, ProjectedVertices projected, int v1, int v2, int v3) {
+        if (size == triangles.length) {
+            int capacity = Math.max(16, size * 2);
+            triangles = Arrays.copyOf(triangles, capacity);
+            shapes = Arrays.copyOf(shapes, capacity);
+            coords = Arrays.copyOf(coords, capacity * STRIDE);
+            baryCache = Arrays.copyOf(baryCache, capacity * BARY_STRIDE);
+        }
+
+        triangles[size] = tri;
+        shapes[size] = shape;
+
+        int c = size * STRIDE;
+        copyVertex(projected, v1, c);
+        copyVertex(projected, v2, c + 3);
+        copyVertex(projected, v3, c + 6);
+
+        int b = size * BARY_STRIDE;
+        double x1 = coords[c], y1 = coords[c + 1];
+        double x2 = coords[c + 3], y2 = coords[c + 4];
+        double x3 = coords[c + 6], y3 = coords[c + 7];
+
+        baryCache[b] = y2 - y3;
+        baryCache[b + 1] = x3 - x2;
+        baryCache[b + 2] = y3 - y1;
+        baryCache[b + 3] = x1 - x3;
+        baryCache[b + 4] = (baryCache[b] * baryCache[b + 3]) + (baryCache[b + 1] * (y1 - y3));
+
+        size++;
+    }
+
+    private void copyVertex(ProjectedVertices projected, int vertex, int c) {
+        coords[c] = projected.xRend(vertex);
+        coords[c + 1] = projected.yRend(vertex);
+        coords[c + 2] = projected.depth(vertex);
+    }
+
+    // fills weights with the barycentric coordinates of a point on screen
+    protected void barycentricCoords(int t, double pX, double pY, double[] weights) {
+        int b = t * BARY_STRIDE;
+
+        double pXMinusV3x = pX - xRend(t, 2);
+        double pYMinusV3y = pY - yRend(t, 2);
+
+        double weight1Numerator = (baryCache[b] * pXMinusV3x) + (baryCache[b + 1] * pYMinusV3y);
+        double weight2Numerator = (baryCache[b + 2] * pXMinusV3x) + (baryCache[b + 3] * pYMinusV3y);
+
+        weights[0] = weight1Numerator / baryCache[b + 4];
+        weights[1] = weight2Numerator / baryCache[b + 4];
+        weights[2] = 1 - weights[0] - weights[1];
+    }
+
+    // the first two barycentric weights are linear in screen space, so they change by a constant
+    // amount for every pixel stepped along x or y
+    protected double bary1StepX(int t) { return baryCache[t * BARY_STRIDE] / baryCache[(t * BARY_STRIDE) + 4]; }
+    protected double bary1StepY(int t) { return baryCache[(t * BARY_STRIDE) + 1] / baryCache[(t * BARY_STRIDE) + 4]; }
+    protected double bary2StepX(int t) { return baryCache[(t * BARY_STRIDE) + 2] / baryCache[(t * BARY_STRIDE) + 4]; }
+    protected double bary2StepY(int t) { return baryCache[(t * BARY_STRIDE) + 3] / baryCache[(t * BARY_STRIDE) + 4]; }
+
+    // triangles with no area on screen have no valid barycentric coordinates
+    protected boolean hasScreenArea(int t) { return baryCache[(t * BARY_STRIDE) + 4] != 0; }
+}
@@ -0,0 +1,203 @@
+package com.ijurnove.cpu3d;
+
+// the part of the world a camera can draw into, as four side planes and a depth plane in world space.
+// used to skip whole shapes, or whole nodes of the scene's ShapeBVH, before any of their vertices are projected
+class Frustum {
+    protected static final int OUTSIDE = 0;
+    protected static final int INTERSECTING = 1;
+    protected static final int INSIDE = 2;
+
+    private static final int DEPTH = 4;
+
+    // a, b, c, d for each plane, where a*x + b*y + c*z + d is above 0 past the plane. the sides come first, then
+    // the depth plane, whose value is instead the distance in front of the camera
+    private final double[][] planes = new double[5][4];
+    private final double[] normalLengths = new double[5];
+
+    // shadow maps draw triangles that cross the camera's plane, so for them the sides only reject things entirely in front of it
+    private final boolean sidesNeedDepth;
+
+    // slopes are the highest screen x, lowest screen x, highest screen y and lowest screen y as a view space value for each unit
+    // of depth. swapInputXY and swapScreenXY follow the shadow map projection, which swaps X and Y before and after the view matrix
+    private Frustum(Matrix4 view, double[] slopes, boolean swapInputXY, boolean swapScreenXY, boolean sidesNeedDepth) {
+        this.sidesNeedDepth = sidesNeedDepth;
+
+        int screenX = swapScreenXY ? 1 : 0;
+        int screenY = swapScreenXY ? 0 : 1;
+
+        // the planes in view space, where depth is -z. they all go through the camera
+        double[][] viewPlanes = new double[5][3];
+        viewPlanes[0][screenX] = 1;
+        viewPlanes[0][2] = slopes[0];
+        viewPlanes[1][screenX] = -1;
+        viewPlanes[1][2] = -1 * slopes[1];
+        viewPlanes[2][screenY] = 1;
+        viewPlanes[2][2] = slopes[2];
+        viewPlanes[3][screenY] = -1;
+        viewPlanes[3][2] = -1 * slopes[3];
+        viewPlanes[DEPTH][2] = -1;
+
+        for (int p = 0; p < 5; p++) {
+            for (int col = 0; col < 4; col++) {
+                // swapping the input is the same as swapping the first two columns of the view matrix
+                int viewCol = (swapInputXY && col < 2) ? 1 - col : col;
+
+                double value = 0;
+                for (int row = 0; row < 3; row++) {
+                    value += viewPlanes[p][row] * view.getValue(viewCol, row);
+                }
+                planes[p][col] = value;
+            }
+
+            normalLengths[p] = Math.sqrt((planes[p][0] * planes[p][0]) + (planes[p][1] * planes[p][1]) + (planes[p][2] * planes[p][2]));
+        }
+    }
+
+    // planes are filled in by the factory methods that use this
+    private Frustum(boolean sidesNeedDepth) {
+        this.sidesNeedDepth = sidesNeedDepth;
+    }
+
+    // the frustum of a scene's view camera
+    protected static Frustum forView(Camera cam) {
+        return new Frustum(cam.getViewMatrix(), viewSlopes(cam), false, false, false);
+    }
+
+    // slopes of the sides of a scene's view camera's frustum, in the same order as the constructor takes them. these follow
+    // the projection in VertexBuffer: divide by depth and tan(fov / 2), then scaleToScreen(), keeping whatever lands on the color map
+    protected static double[] viewSlopes(Camera cam) {
+        Scene scene = cam.getParent();
+        double tanFov = Math.tan(Math.toRadians(cam.getFov()) / 2);
+
+        int width = scene.getPixelWidth();
+        int height = scene.getPixelHeight();
+        int cMapWidth = scene.getColorMap().getWidth();
+        int cMapHeight = scene.getColorMap().getHeight();
+
+        double[] slopes = new double[] {
+            ((double) (cMapWidth - (width / 2)) / width) * tanFov,
+            ((double) (-1 * (width / 2)) / width) * tanFov,
+            // screen y is flipped and doubled
+            ((double) (height / 2) / (2 * height)) * tanFov,
+            ((double) ((height / 2) - cMapHeight) / (2 * height)) * tanFov
+        };
+
+        return slopes;
+    }
+
+    // the frustum of one face of a point light's cube map, seen through the given view matrix
+    protected static Frustum forPointShadowMap(Camera cam, Matrix4 view, int width, int height) {
+        double tanFov = Math.tan(Math.toRadians(cam.getFov()) / 2);
+
+        double[] slopes = new double[] {
+            ((double) (width - (width / 2)) / width) * tanFov,
+            ((double) (-1 * (width / 2)) / width) * tanFov,
+            ((double) (height - (height / 2)) / height) * tanFov,
+            ((double) (-1 * (height / 2)) / height) * tanFov
+        };
+
+        return new Frustum(view, slopes, true, true, true);
+    }
+
+    // the box an orthographic shadow map's view takes to between -0.5 and 0.5 across and up. nothing is culled by depth,
+    // as a caster anywhere between the light and the map's area shades it
+    protected static Frustum forOrthoShadowMap(Matrix4 view) {
+        Frustum frustum = new Frustum(false);
+
+        for (int p = 0; p < DEPTH; p++) {
+            // rows 0 and 1 of the view give the position across and up the map, and a side is passed once it is over 0.5
+            int row = p / 2;
+            double sign = (p % 2 == 0) ? 1 : -1;
+
+            for (int col = 0; col < 4; col++) {
+                frustum.planes[p][col] = sign * view.getValue(col, row);
+            }
+            frustum.planes[p][3] -= 0.5;
+
+            double[] plane = frustum.planes[p];
+            frustum.normalLengths[p] = Math.sqrt((plane[0] * plane[0]) + (plane[1] * plane[1]) + (plane[2] * plane[2]));
+        }
+
+        // a depth plane everything is in front of
+        frustum.planes[DEPTH][3] = 1;
+
+        return frustum;
+    }
+
+    private double value(int plane, double x, double y, double z) {
+        double[] p = planes[plane];
+        return (p[0] * x) + (p[1] * y) + (p[2] * z) + p[3];
+    }
+
+    // false only if nothing inside the bounds can be drawn. the sphere is tested first, and the box only if the sphere is not enough to tell
+    protected boolean intersects(Bounds bounds) {
+        double x = bounds.centerValue(0);
+        double y = bounds.centerValue(1);
+        double z = bounds.centerValue(2);
+        double radius = bounds.radius();
+
+        double depth = value(DEPTH, x, y, z);
+        double depthReach = radius * normalLengths[DEPTH];
+
+        // triangles are only drawn where they are in front of the camera
+        if (depth + depthReach <= 0) {
+            return false;
+        }
+
+        if (!sidesNeedDepth || depth - depthReach > 0) {
+            for (int p = 0; p < DEPTH; p++) {
+                if (value(p, x, y, z) > radius * normalLengths[p]) {
+                    return false;
+                }
+            }
+        }
+
+        return classify(
+            bounds.minValue(0), bounds.minValue(1), bounds.minValue(2),
+            bounds.maxValue(0), bounds.maxValue(1), bounds.maxValue(2)
+        ) != OUTSIDE;
+    }
+
+    // whether a box is entirely outside, partly inside, or entirely inside
+    protected int classify(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        // the lowest and highest value of each plane over the box come from the corners nearest and furthest along its normal
+        double depthHighest = highest(DEPTH, minX, minY, minZ, maxX, maxY, maxZ);
+
+        if (depthHighest <= 0) {
+            return OUTSIDE;
+        }
+
+        boolean inFront = lowest(DEPTH, minX, minY, minZ, maxX, maxY, maxZ) > 0;
+        boolean inside = inFront;
+
+        for (int p = 0; p < DEPTH; p++) {
+            if (lowest(p, minX, minY, minZ, maxX, maxY, maxZ) > 0 && (!sidesNeedDepth || inFront)) {
+                return OUTSIDE;
+            }
+
+            if (highest(p, minX, minY, minZ, maxX, maxY, maxZ) > 0) {
+                inside = false;
+            }
+        }
+
+        return inside ? INSIDE : INTERSECTING;
+    }
+
+    private double lowest(int p, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        double[] plane = planes[p];
+
+        return plane[3]
+            + (plane[0] * (plane[0] > 0 ? minX : maxX))
+            + (plane[1] * (plane[1] > 0 ? minY : maxY))
+            + (plane[2] * (plane[2] > 0 ? minZ : maxZ));
+    }
+
+    private double highest(int p, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        double[] plane = planes[p];
+
+        return plane[3]
+            + (plane[0] * (plane[0] > 0 ? maxX : minX))
+            + (plane[1] * (plane[1] > 0 ? maxY : minY))
+            + (plane[2] * (plane[2] > 0 ? maxZ : minZ));
+    }
+}
@@ -0,0 +1,111 @@
+package com.ijurnove.cpu3d;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// surface data written by the rasterizer in deferred shading mode, one entry per pixel stored row by row.
+// lighting is calculated afterwards from these values alone, once per pixel
+class GBuffer {
+    // material id of pixels with nothing on them, or whose surface is not lit
+    protected static final int NO_LIGHTING = -1;
+
+    private final double[] positions;
+    private final double[] normals;
+    private final int[] albedo;
+    private final int[] materialIds;
+
+    // materials used this frame, and the material id of every triangle being drawn
+    private Material[] materials = new Material[0];
+    private int[] triangleMaterials = new int[0];
+
+    protected GBuffer(int width, int height) {
+        this.positions = new double[width * height * 3];
+        this.normals = new double[width * height * 3];
+        this.albedo = new int[width * height];
+        this.materialIds = new int[width * height];
+    }
+
+    protected void clear() {
+        Arrays.fill(materialIds, NO_LIGHTING);
+    }
+
+    // gives every material used by the triangles an id. triangles that don't receive lighting are given NO_LIGHTING
+    protected void prepare(DrawList drawn, Scene scene) {
+        int triCount = drawn.size();
+
+        if (triangleMaterials.length < triCount) {
+            triangleMaterials = new int[triCount];
+        }
+
+        IdentityHashMap<Material, Integer> ids = new IdentityHashMap<>();
+
+        // triangles of the same shape are next to each other, so the lookup is only done when the shape changes
+        Shape3d lastShape = null;
+        int lastId = NO_LIGHTING;
+
+        for (int i = 0; i < triCount; i++) {
+            Shape3d shape = drawn.shape(i);
+
+            if (shape != lastShape) {
+                lastShape = shape;
+
+                if (LightCalc.receivesLighting(scene, shape)) {
+                    Material mat = shape.getMaterial();
+                    Integer id = ids.get(mat);
+
+                    if (id == null) {
+                        id = ids.size();
+                        ids.put(mat, id);
+                    }
+
+                    lastId = id;
+                } else {
+                    lastId = NO_LIGHTING;
+                }
+            }
+
+            triangleMaterials[i] = lastId;
+        }
+
+        materials = new Material[ids.size()];
+        for (Material mat : ids.keySet()) {
+            materials[ids.get(mat)] = mat;
+        }
+    }
+
+    protected int triangleMaterial(int triIndex) { return this.triangleMaterials[triIndex]; }
+    protected Material getMaterial(int id) { return this.materials[id]; }
+
+    protected void write(int index, int materialId, Point3d position, double[] normal, int rgb) {
+        positions[index * 3] = position.xReal();
+        positions[(index * 3) + 1] = position.yReal();
+        positions[(index * 3) + 2] = position.zReal();
+
+        normals[index * 3] = normal[0];
+        normals[(index * 3) + 1] = normal[1];
+        normals[(index * 3) + 2] = normal[2];
+
+        albedo[index] = rgb;
+        materialIds[index] = materialId;
+    }
+
+    // marks a pixel as covered by a surface that was drawn without lighting
+    protected void writeUnlit(int index) {
+        materialIds[index] = NO_LIGHTING;
+    }
+
+    protected int materialId(int index) { return this.materialIds[index]; }
+    protected int albedo(int index) { return this.albedo[index]; }
+
+    // the position and normal are copied into dest, which the lighting pass reuses for every pixel
+    protected void position(int index, Point3d dest) {
+        dest.setX(positions[index * 3]);
+        dest.setY(positions[(index * 3) + 1]);
+        dest.setZ(positions[(index * 3) + 2]);
+    }
+
+    protected void normal(int index, double[] dest) {
+        dest[0] = normals[index * 3];
+        dest[1] = normals[(index * 3) + 1];
+        dest[2] = normals[(index * 3) + 2];
+    }
+}
@@ -1,4 +1,5 @@
 package com.ijurnove.cpu3d;
+import java.util.List;
 
 /**
  * Objects that extend the <code>Light</code> class are used by <code>Scene</code> to calculate lighting. Each extension of the <code>Light</code> class must have
@@ -69,9 +70,11 @@ public abstract class Light {
     abstract double shadowValue(Point3d point);
 
     /**
-     * Updates this <code>Light</code>'s <code>ShadowMap</code> using its parent <code>Scene</code>.
+     * Updates this <code>Light</code>'s <code>ShadowMap</code>s using its parent <code>Scene</code>. Maps that have to be redrawn are added to
+     * <code>redrawn</code>, and are drawn by the <code>Scene</code> once every <code>Light</code> has been updated.
+     * @param redrawn the list of ShadowMaps to redraw
      */
-    abstract void updateShadowMap();
+    abstract void updateShadowMap(List<ShadowMap> redrawn);
 
     /**
      * Runs after a <code>Light</code> is added to a <code>Scene</code>. The <code>Light</code>'s parent can be accessed in this method.
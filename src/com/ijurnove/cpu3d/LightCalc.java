@@ -1,84 +1,105 @@
 package com.ijurnove.cpu3d;
 import static java.lang.Math.pow;
+import java.util.List;
 
+// runs once for every lit pixel, so nothing in here allocates. the light and material colors come premultiplied from
+// the scene's LightingTerms, and all vector math is done in local variables
 class LightCalc {
-    protected static double[] phongLighting(Camera cam, Point3d point, Vector3d normalVec, Scene scene, Material mat, Shape3d parentObject) {
-        if (parentObject.getShapeFlag(ShapeFlag.RECIEVE_LIGHTING) == 1 && scene.getFlag(SceneFlag.DO_LIGHTING) == 1) {
-            Vector3d viewVec = new Vector3d(cam.getPos(), point);
-            viewVec.normalize();
-            normalVec.normalize();
-            
-            double[] intensities = new double[3];
-            for (Light light : scene.getLights()) {
-                Vector3d lightVec = light.lightVec(point);
-                lightVec.swapXY();
-
-                // double decay = light.distance(lightVec);
-                double decay = light.distance(lightVec);
-                if (light.getType() == LightType.POINT) {
-                    decay = Math.max(1, Math.pow(decay, ((PointLight) light).getDecay()));
-                }
-
-                lightVec.normalize();
-
-                double shadow = 1;
-                if (scene.getFlag(SceneFlag.DO_SHADOWS) == 1) {
-                    shadow = light.shadowValue(point);
-                }
-                
-                
-                double[] emis = mat.getEmissive();
-                double[] amb = phongAmbient(mat, light);
-                double[] diff = phongDiffuse(mat, light, normalVec, lightVec);
-                double[] spec = blinnPhongSpecular(mat, light, lightVec, viewVec, normalVec);
-
-                for (int i = 0; i < 3; i++) {
-                    intensities[i] += emis[i] + amb[i] + 
-                        ((diff[i] / decay) + 
-                         (spec[i] / decay))
-                        * shadow;
-                }
-            }
+    // values reused from pixel to pixel while lighting. every thread that lights pixels needs its own
+    protected static final class Scratch {
+        protected final Point3d point = new Point3d(0, 0, 0);
+        protected final double[] normal = new double[3];
+        protected final double[] intensities = new double[3];
+    }
 
-            return intensities;
-        } else {
-            return new double[] {1, 1, 1};
-        }
+    protected static boolean receivesLighting(Scene scene, Shape3d parentObject) {
+        return parentObject.getShapeFlag(ShapeFlag.RECIEVE_LIGHTING) == 1 && scene.getFlag(SceneFlag.DO_LIGHTING) == 1;
     }
 
-    private static double[] phongAmbient(Material mat, Light light) {
-        double[] returnVal = new double[3];
+    // lights a point without checking whether its shape receives lighting, and writes the red, green and blue
+    // intensities into intensities. point is only read, so callers can keep reusing the same one
+    protected static void phongLighting(Scene scene, Point3d point, double normalX, double normalY, double normalZ, Material mat, double[] intensities) {
+        List<Light> lights = scene.getLights();
+        double[] terms = scene.getLightingTerms().get(mat);
+        boolean doShadows = scene.getFlag(SceneFlag.DO_SHADOWS) == 1;
 
-        for (int i = 0; i < 3; i++) {
-            returnVal[i] = light.getComponents().getAmb()[i] * mat.getPhongComponents().getAmb()[i];
-        }
+        double pointX = point.xReal();
+        double pointY = point.yReal();
+        double pointZ = point.zReal();
 
-        return returnVal;
-    }
+        Point3d camPos = scene.getViewCamera().getPos();
+        double viewX = pointX - camPos.xReal();
+        double viewY = pointY - camPos.yReal();
+        double viewZ = pointZ - camPos.zReal();
+        double viewMag = Math.sqrt((viewX * viewX) + (viewY * viewY) + (viewZ * viewZ));
+        viewX /= viewMag;
+        viewY /= viewMag;
+        viewZ /= viewMag;
 
-    private static double[] phongDiffuse(Material mat, Light light, Vector3d normVec, Vector3d lightVec) {
-        double[] returnVal = new double[3];
-        
-        double multiplier = Math.max(Vector3d.dotProduct(normVec, lightVec), 0);
-        
-        for (int i = 0; i < 3; i++) {
-            returnVal[i] = mat.getPhongComponents().getDiff()[i] * multiplier * light.getComponents().getDiff()[i];
-        }
+        double normalMag = Math.sqrt((normalX * normalX) + (normalY * normalY) + (normalZ * normalZ));
+        normalX /= normalMag;
+        normalY /= normalMag;
+        normalZ /= normalMag;
 
-        return returnVal;
-    }
+        intensities[0] = 0;
+        intensities[1] = 0;
+        intensities[2] = 0;
 
-    private static double[] blinnPhongSpecular(Material mat, Light light, Vector3d lightVec, Vector3d viewVec, Vector3d normalVec) {
-        double[] returnVal = new double[3];
+        for (int l = 0; l < lights.size(); l++) {
+            Light light = lights.get(l);
 
-        Vector3d halfwayVec = Vector3d.add(lightVec, viewVec);
-        halfwayVec.normalize();
-        double multiplier = pow(Math.max(Vector3d.dotProduct(normalVec, halfwayVec), 0), mat.getShininess());
+            // point lights and the point being lit both hold X and Y swapped, so the difference is swapped back here
+            double lightX;
+            double lightY;
+            double lightZ;
+            double decay = 1;
 
-        for (int i = 0; i < 3; i++) {
-            returnVal[i] = mat.getPhongComponents().getSpec()[i] * multiplier * light.getComponents().getSpec()[i];
-        }
+            if (light.getType() == LightType.POINT) {
+                Point3d lightPos = ((PointLight) light).getPos();
+                lightX = lightPos.yReal() - pointY;
+                lightY = lightPos.xReal() - pointX;
+                lightZ = lightPos.zReal() - pointZ;
+
+                double distance = Math.sqrt((lightX * lightX) + (lightY * lightY) + (lightZ * lightZ));
+                decay = Math.max(1, pow(distance, ((PointLight) light).getDecay()));
+            } else {
+                // a directional light's direction is in world space, the same as the normal, so it is used as it is
+                Vector3d direction = ((DirectionalLight) light).getDirection();
+                lightX = direction.x();
+                lightY = direction.y();
+                lightZ = direction.z();
+            }
+
+            double lightMag = Math.sqrt((lightX * lightX) + (lightY * lightY) + (lightZ * lightZ));
+            lightX /= lightMag;
+            lightY /= lightMag;
+            lightZ /= lightMag;
+
+            double shadow = 1;
+            if (doShadows) {
+                shadow = light.shadowValue(point);
+            }
+
+            double diffuse = Math.max((normalX * lightX) + (normalY * lightY) + (normalZ * lightZ), 0);
 
-        return returnVal;
+            // blinn-phong uses the vector halfway between the light and view vectors
+            double halfX = lightX + viewX;
+            double halfY = lightY + viewY;
+            double halfZ = lightZ + viewZ;
+            double halfMag = Math.sqrt((halfX * halfX) + (halfY * halfY) + (halfZ * halfZ));
+            halfX /= halfMag;
+            halfY /= halfMag;
+            halfZ /= halfMag;
+
+            double specular = pow(Math.max((normalX * halfX) + (normalY * halfY) + (normalZ * halfZ), 0), mat.getShininess());
+
+            int offset = l * LightingTerms.STRIDE;
+            for (int i = 0; i < 3; i++) {
+                intensities[i] += terms[offset + LightingTerms.BASE + i] +
+                    (((terms[offset + LightingTerms.DIFFUSE + i] * diffuse) / decay) +
+                     ((terms[offset + LightingTerms.SPECULAR + i] * specular) / decay))
+                    * shadow;
+            }
+        }
     }
 }
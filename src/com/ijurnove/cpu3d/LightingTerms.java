@@ -0,0 +1,55 @@
+package com.ijurnove.cpu3d;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+// the parts of phong lighting that only depend on a light and a material. they are multiplied out once per frame for
+// every material being drawn, so lighting a pixel only has to scale them
+class LightingTerms {
+    // values stored for each light, in the order the scene holds its lights
+    protected static final int STRIDE = 9;
+    protected static final int BASE = 0;
+    protected static final int DIFFUSE = 3;
+    protected static final int SPECULAR = 6;
+
+    private final IdentityHashMap<Material, double[]> terms = new IdentityHashMap<>();
+
+    // works out the terms of every material used by the shapes. it is given every shape that will be drawn, so lighting
+    // only ever looks materials up and never works one out mid-frame. has to finish before any pixel is lit, after that
+    // the table is only read, so the render threads can share it
+    protected void update(List<Light> lights, List<Shape3d> shapes) {
+        terms.clear();
+
+        for (Shape3d shape : shapes) {
+            Material mat = shape.getMaterial();
+
+            if (!terms.containsKey(mat)) {
+                terms.put(mat, calculate(mat, lights));
+            }
+        }
+    }
+
+    protected double[] get(Material mat) {
+        return terms.get(mat);
+    }
+
+    private static double[] calculate(Material mat, List<Light> lights) {
+        double[] matTerms = new double[lights.size() * STRIDE];
+
+        double[] emis = mat.getEmissive();
+        PhongComponents matComponents = mat.getPhongComponents();
+
+        for (int l = 0; l < lights.size(); l++) {
+            PhongComponents lightComponents = lights.get(l).getComponents();
+            int offset = l * STRIDE;
+
+            for (int i = 0; i < 3; i++) {
+                // emissive and ambient light don't depend on the surface's angle or shadows, so they are added up front
+                matTerms[offset + BASE + i] = emis[i] + (lightComponents.getAmb()[i] * matComponents.getAmb()[i]);
+                matTerms[offset + DIFFUSE + i] = matComponents.getDiff()[i] * lightComponents.getDiff()[i];
+                matTerms[offset + SPECULAR + i] = matComponents.getSpec()[i] * lightComponents.getSpec()[i];
+            }
+        }
+
+        return matTerms;
+    }
+}
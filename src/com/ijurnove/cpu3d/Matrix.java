@@ -191,50 +191,6 @@ public class Matrix {
         return new Matrix(product);
     }
 
-    // updates renderCoords to scale this to depth - call 2nd
-    private void scaleToDepth() {
-        this.setValue(0, 2, getValue(0, 2) * -1);
-        double z = this.getValue(0, 2);
-        if (z == 0) {
-            z = 1;
-        }
-        this.setValue(0, 0, this.getValue(0, 0) / z);
-        this.setValue(0, 1, this.getValue(0, 1) / z);
-    }
-
-    // scales coordinates with fov - call 3rd
-    private void scaleFOV(double fov) {
-        this.setValue(0, 0, this.getValue(0, 0) / Math.tan(Math.toRadians(fov) / 2));
-        this.setValue(0, 1, this.getValue(0, 1) / Math.tan(Math.toRadians(fov) / 2));
-    }
-
-    // sets coordinates to screen positions - call 4th
-    private void scaleToScreen(Scene scene) {
-        this.setValue(0, 0, (this.getValue(0, 0) * scene.getPixelWidth()) + (scene.getPixelWidth() / 2));
-        this.setValue(0, 1, (this.getValue(0, 1) * scene.getPixelHeight() * (-1 - (scene.getPixelHeight() / scene.getPixelHeight()))) + (scene.getPixelHeight() / 2));
-    }
-
-    protected void perspRenderUpd(Camera c) {
-        this.scaleToDepth();
-        this.scaleFOV(c.getFov());
-        this.scaleToScreen(c.getParent());
-    }
-
-    protected void perspRenderUpdForPointShadowMap(Camera c) {
-        this.scaleToDepth();
-        this.scaleFOV(c.getFov());
-        this.scaleToBounds((int) c.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_ACROSS), (int) c.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_UP));
-    }
-
-    private void scaleToBounds(int width, int height) {
-        this.setValue(0, 0, (this.getValue(0, 0) * width) + (width / 2));
-        this.setValue(0, 1, (this.getValue(0, 1) * height) + (height / 2));   
-    }
-
-    protected void orthoRenderUpd(Camera c) {
-        this.scaleToBounds((int) c.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_ACROSS), (int) c.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_UP));
-    }
-
     protected static final Matrix AXIS_CONV_MATRIX = new Matrix(new double[][] {
         {0, -1, 0, 0},
         {-1, 0, 0, 0},
@@ -0,0 +1,132 @@
+package com.ijurnove.cpu3d;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import java.util.Arrays;
+
+// 4x4 matrix stored in a flat array, row by row. used on the vertex pipeline instead of Matrix,
+// as nothing here allocates: products are written into an existing Matrix4 and points are transformed in place
+class Matrix4 {
+    protected static final Matrix4 AXIS_CONV_MATRIX = new Matrix4(Matrix.AXIS_CONV_MATRIX.getValues());
+
+    private final double[] values = new double[16];
+
+    // all zeros
+    protected Matrix4() { }
+
+    protected Matrix4(double[][] rows) {
+        for (int row = 0; row < 4; row++) {
+            System.arraycopy(rows[row], 0, values, row * 4, 4);
+        }
+    }
+
+    protected static Matrix4 identity() {
+        Matrix4 m = new Matrix4();
+        m.values[0] = 1;
+        m.values[5] = 1;
+        m.values[10] = 1;
+        m.values[15] = 1;
+        return m;
+    }
+
+    // rotation around the origin, in the same form as Point3d.rotate()
+    protected static Matrix4 rotation(int axis, double theta) {
+        return switch (axis) {
+            case 0 -> new Matrix4(new double[][] {
+                {1, 0, 0, 0},
+                {0, cos(theta), -1 * sin(theta), 0},
+                {0, sin(theta), cos(theta), 0},
+                {0, 0, 0, 0}
+            });
+            case 1 -> new Matrix4(new double[][] {
+                {cos(theta), 0, sin(theta), 0},
+                {0, 1, 0, 0},
+                {-1 * sin(theta), 0, cos(theta), 0},
+                {0, 0, 0, 0}
+            });
+            case 2 -> new Matrix4(new double[][] {
+                {cos(theta), -1 * sin(theta), 0, 0},
+                {sin(theta), cos(theta), 0, 0},
+                {0, 0, 1, 0},
+                {0, 0, 0, 0}
+            });
+            default -> throw new RuntimeException("No rotation for axis " + axis);
+        };
+    }
+
+    // same argument order as Matrix
+    protected double getValue(int col, int row) { return values[(row * 4) + col]; }
+    protected void setValue(int col, int row, double newVal) { values[(row * 4) + col] = newVal; }
+
+    protected void setValues(Matrix4 m) {
+        System.arraycopy(m.values, 0, values, 0, 16);
+    }
+
+    protected boolean valuesEqual(Matrix4 m) {
+        return Arrays.equals(values, m.values);
+    }
+
+    protected void swapRows(int row1, int row2) {
+        for (int col = 0; col < 4; col++) {
+            double hold = values[(row1 * 4) + col];
+            values[(row1 * 4) + col] = values[(row2 * 4) + col];
+            values[(row2 * 4) + col] = hold;
+        }
+    }
+
+    protected Matrix toMatrix() {
+        double[][] rows = new double[4][4];
+        for (int row = 0; row < 4; row++) {
+            System.arraycopy(values, row * 4, rows[row], 0, 4);
+        }
+        return new Matrix(rows);
+    }
+
+    // out = m1 * m2. out may be m1, but not m2
+    protected static void multiplyInto(Matrix4 m1, Matrix4 m2, Matrix4 out) {
+        double[] a = m1.values;
+        double[] b = m2.values;
+        double[] o = out.values;
+
+        for (int row = 0; row < 16; row += 4) {
+            double a0 = a[row];
+            double a1 = a[row + 1];
+            double a2 = a[row + 2];
+            double a3 = a[row + 3];
+
+            o[row] = (a0 * b[0]) + (a1 * b[4]) + (a2 * b[8]) + (a3 * b[12]);
+            o[row + 1] = (a0 * b[1]) + (a1 * b[5]) + (a2 * b[9]) + (a3 * b[13]);
+            o[row + 2] = (a0 * b[2]) + (a1 * b[6]) + (a2 * b[10]) + (a3 * b[14]);
+            o[row + 3] = (a0 * b[3]) + (a1 * b[7]) + (a2 * b[11]) + (a3 * b[15]);
+        }
+    }
+
+    // transforms the point {x, y, z, w} stored at offset, in place
+    protected void transformPoint(double[] point, int offset) {
+        double x = point[offset];
+        double y = point[offset + 1];
+        double z = point[offset + 2];
+        double w = point[offset + 3];
+
+        point[offset] = (values[0] * x) + (values[1] * y) + (values[2] * z) + (values[3] * w);
+        point[offset + 1] = (values[4] * x) + (values[5] * y) + (values[6] * z) + (values[7] * w);
+        point[offset + 2] = (values[8] * x) + (values[9] * y) + (values[10] * z) + (values[11] * w);
+        point[offset + 3] = (values[12] * x) + (values[13] * y) + (values[14] * z) + (values[15] * w);
+    }
+
+    // one row of this matrix times the position {x, y, z, 1}, for when only some of the result is needed
+    protected double transformRow(int row, double x, double y, double z) {
+        int r = row * 4;
+        return (values[r] * x) + (values[r + 1] * y) + (values[r + 2] * z) + values[r + 3];
+    }
+
+    // transforms the position {x, y, z} stored at offset in place, treating w as 1
+    protected void transformPosition(double[] position, int offset) {
+        double x = position[offset];
+        double y = position[offset + 1];
+        double z = position[offset + 2];
+
+        position[offset] = (values[0] * x) + (values[1] * y) + (values[2] * z) + values[3];
+        position[offset + 1] = (values[4] * x) + (values[5] * y) + (values[6] * z) + values[7];
+        position[offset + 2] = (values[8] * x) + (values[9] * y) + (values[10] * z) + values[11];
+    }
+}
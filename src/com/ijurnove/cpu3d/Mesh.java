@@ -1,17 +1,50 @@
 package com.ijurnove.cpu3d;
+import java.util.IdentityHashMap;
 
 /**
- * A <code>Mesh</code> consists of a set of <code>Triangle</code>s. 
+ * A <code>Mesh</code> consists of a set of <code>Triangle</code>s. The vertices of the <code>Triangle</code>s are stored together, so
+ * vertices shared by several <code>Triangle</code>s are only stored, and projected, once.
+ * <p>
+ * A <code>Mesh</code>'s vertices can't be moved once it is built. <code>Shape3d</code>s are moved with their own model transform instead,
+ * so any number of them can draw the same <code>Mesh</code>.
  */
 public class Mesh {
     private final Triangle[] triangles;
+    private final VertexBuffer vertexBuffer;
+    // the vertex buffer index of each triangle's three vertices
+    private final int[] indices;
+    // fitted to the vertices once, as they never move
+    private final Bounds bounds = new Bounds();
 
     /**
-     * Constructs a <code>Mesh</code> with a given set of <code>Triangle</code>s.
+     * Constructs a <code>Mesh</code> with a given set of <code>Triangle</code>s. The vertices of the <code>Triangle</code>s are moved into
+     * this <code>Mesh</code>, so they should not be shared with another <code>Mesh</code>, and can't be moved afterwards.
      * @param triangles a set of Triangles
      */
     public Mesh(Triangle[] triangles) {
         this.triangles = triangles;
+        this.vertexBuffer = VertexBuffer.gather(triangles);
+        this.indices = new int[triangles.length * 3];
+
+        for (int i = 0; i < triangles.length; i++) {
+            Point3d[] vertices = triangles[i].getVertices();
+            for (int v = 0; v < 3; v++) {
+                indices[(i * 3) + v] = vertices[v].getIndex();
+            }
+        }
+
+        vertexBuffer.lock();
+        bounds.fit(vertexBuffer.positions());
+    }
+
+    // the triangles' vertices must already be views into vertexBuffer, at the given indices
+    protected Mesh(Triangle[] triangles, VertexBuffer vertexBuffer, int[] indices) {
+        this.triangles = triangles;
+        this.vertexBuffer = vertexBuffer;
+        this.indices = indices;
+
+        vertexBuffer.lock();
+        bounds.fit(vertexBuffer.positions());
     }
 
     /**
@@ -20,17 +53,60 @@ public class Mesh {
      */
     public Triangle[] getTriangles() { return this.triangles; }
 
+    protected VertexBuffer getVertexBuffer() { return this.vertexBuffer; }
+    protected int[] getIndices() { return this.indices; }
+    protected Bounds getBounds() { return this.bounds; }
+
     /**
-     * Copies this <code>Mesh</code> and all the <code>Triangle</code>s within it.
+     * Copies this <code>Mesh</code> and all the <code>Triangle</code>s within it. Vertices and point normals shared by several
+     * <code>Triangle</code>s are still shared in the copy.
      * @return a copy of this Mesh
      */
     public Mesh copy() {
+        VertexBuffer copiedBuffer = vertexBuffer.copy();
+        Point3d[] points = copiedBuffer.points();
+        IdentityHashMap<Vector3d, Vector3d> normals = new IdentityHashMap<>();
+
         Triangle[] copiedTriangles = new Triangle[triangles.length];
 
         for (int i = 0; i < copiedTriangles.length; i++) {
-            copiedTriangles[i] = triangles[i].copy();
+            copiedTriangles[i] = triangles[i].copy(
+                points[indices[i * 3]], points[indices[(i * 3) + 1]], points[indices[(i * 3) + 2]], normals
+            );
+        }
+
+        return new Mesh(copiedTriangles, copiedBuffer, indices.clone());
+    }
+
+    // a copy of this Mesh turned inside out, for Shape3d.flipNormals(). this Mesh may be drawn by other shapes, so it is
+    // left as it is
+    protected Mesh flipped() {
+        Mesh flipped = copy();
+
+        for (Triangle t : flipped.triangles) {
+            t.flip();
+        }
+
+        // flipping swaps the first and third vertex of every triangle
+        for (int i = 0; i < flipped.indices.length; i += 3) {
+            int hold = flipped.indices[i];
+            flipped.indices[i] = flipped.indices[i + 2];
+            flipped.indices[i + 2] = hold;
         }
 
-        return new Mesh(copiedTriangles);
+        return flipped;
+    }
+
+    /**
+     * Returns a simpler version of this <code>Mesh</code> with at most a given number of <code>Triangle</code>s. Edges are collapsed one at a
+     * time, always picking the one that changes the surface least, so flat areas lose detail before curved ones. Open edges keep their outline.
+     * Texture coordinates and point normals are interpolated where each merged vertex ends up, and vertices on a texture seam or a hard edge,
+     * whose corners have different texture coordinates or point normals, are never moved. Simplifying stops early if no more edges can be
+     * collapsed without folding the surface over or moving such a vertex. This <code>Mesh</code> is not changed.
+     * @param targetTriangles the highest number of Triangles to keep
+     * @return the simplified Mesh
+     */
+    public Mesh simplify(int targetTriangles) {
+        return MeshSimplifier.simplify(triangles, vertexBuffer.positions(), targetTriangles);
     }
 }
@@ -0,0 +1,764 @@
+package com.ijurnove.cpu3d;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+
+// builds simpler versions of a mesh by collapsing edges one at a time, cheapest first. the cost of moving a vertex is measured with
+// quadric error metrics: every vertex keeps the sum of the squared distance to the planes of the triangles around it, so the cost of
+// a collapse is how far the merged vertex ends up from all of the surface it replaces. the merged vertex's texture coordinates and
+// point normal are interpolated at the place it ends up, and vertices on a texture seam or a hard edge are never moved
+class MeshSimplifier {
+    // edges used by only one triangle are held in place by extra planes at right angles to them, weighted by this much,
+    // so holes and open edges keep their outline
+    private static final double BOUNDARY_WEIGHT = 1000;
+
+    // u, v and the point normal's x, y, z at every corner of every triangle. a missing normal or texture coordinate is NaN
+    private static final int ATTRIBUTES = 5;
+
+    // x, y, z of every vertex, and its quadric as the upper triangle of a symmetric 4x4 matrix
+    private final double[] positions;
+    private final double[] quadrics;
+    private final boolean[] removedVertices;
+    // goes up every time a vertex moves, so queued collapses that used its old position are skipped
+    private final int[] versions;
+
+    // the vertex buffer index of each triangle's three vertices, updated as vertices are merged
+    private final int[] indices;
+    private final boolean[] removedTriangles;
+    private int triangleCount;
+
+    // the attributes of each triangle corner, updated for the corners of a vertex whenever it moves
+    private final double[] cornerAttributes;
+    // vertices whose corners don't all have the same attributes. no single value could be interpolated for them, so they stay
+    // where they are, and no collapse crosses a texture seam or a hard edge
+    private final boolean[] seams;
+
+    // the triangles around each vertex
+    private final int[][] vertexTriangles;
+    private final int[] vertexTriangleCounts;
+
+    // collapsed vertices are kept within the mesh's original bounding box, so bounds fitted to the full mesh still hold every level
+    private final double[] min = new double[3];
+    private final double[] max = new double[3];
+
+    private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+
+    private static class Collapse implements Comparable<Collapse> {
+        private final int kept;
+        private final int removed;
+        private final int keptVersion;
+        private final int removedVersion;
+        private final double cost;
+        private final double[] position;
+
+        private Collapse(int kept, int removed, int keptVersion, int removedVersion, double cost, double[] position) {
+            this.kept = kept;
+            this.removed = removed;
+            this.keptVersion = keptVersion;
+            this.removedVersion = removedVersion;
+            this.cost = cost;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    private MeshSimplifier(Triangle[] triangles, double[] sourcePositions) {
+        int vertexCount = sourcePositions.length / 3;
+
+        this.positions = sourcePositions.clone();
+        this.quadrics = new double[vertexCount * 10];
+        this.removedVertices = new boolean[vertexCount];
+        this.versions = new int[vertexCount];
+
+        this.indices = new int[triangles.length * 3];
+        this.removedTriangles = new boolean[triangles.length];
+        this.triangleCount = triangles.length;
+
+        this.vertexTriangles = new int[vertexCount][];
+        this.vertexTriangleCounts = new int[vertexCount];
+
+        this.cornerAttributes = new double[triangles.length * 3 * ATTRIBUTES];
+        this.seams = new boolean[vertexCount];
+
+        for (int i = 0; i < triangles.length; i++) {
+            Point3d[] vertices = triangles[i].getVertices();
+
+            for (int v = 0; v < 3; v++) {
+                indices[(i * 3) + v] = vertices[v].getIndex();
+                addVertexTriangle(vertices[v].getIndex(), i);
+                loadAttributes(triangles[i], v, ((i * 3) + v) * ATTRIBUTES);
+            }
+        }
+
+        findSeams();
+
+        for (int axis = 0; axis < 3; axis++) {
+            min[axis] = Double.POSITIVE_INFINITY;
+            max[axis] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int p = 0; p < positions.length; p += 3) {
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], positions[p + axis]);
+                max[axis] = Math.max(max[axis], positions[p + axis]);
+            }
+        }
+    }
+
+    // returns a new Mesh with at most targetTriangles triangles, or as close as collapses allow. positions holds x, y, z for every
+    // vertex buffer index the triangles use
+    protected static Mesh simplify(Triangle[] triangles, double[] positions, int targetTriangles) {
+        MeshSimplifier simplifier = new MeshSimplifier(triangles, positions);
+
+        simplifier.addTriangleQuadrics();
+        simplifier.queueEdges();
+        simplifier.collapseUntil(Math.max(0, targetTriangles));
+
+        return simplifier.buildMesh(triangles);
+    }
+
+    private void loadAttributes(Triangle tri, int corner, int a) {
+        UV[] uvs = tri.getTextureCoords();
+        Vector3d[] normals = tri.getPointNormals();
+
+        UV uv = uvs == null ? null : uvs[corner];
+        Vector3d normal = normals == null ? null : normals[corner];
+
+        cornerAttributes[a] = uv == null ? Double.NaN : uv.u();
+        cornerAttributes[a + 1] = uv == null ? Double.NaN : uv.v();
+        cornerAttributes[a + 2] = normal == null ? Double.NaN : normal.x();
+        cornerAttributes[a + 3] = normal == null ? Double.NaN : normal.y();
+        cornerAttributes[a + 4] = normal == null ? Double.NaN : normal.z();
+    }
+
+    private void findSeams() {
+        // the first corner found at each vertex, which every other one is compared to
+        int[] firstCorners = new int[seams.length];
+        Arrays.fill(firstCorners, -1);
+
+        for (int corner = 0; corner < indices.length; corner++) {
+            int vertex = indices[corner];
+
+            if (firstCorners[vertex] == -1) {
+                firstCorners[vertex] = corner;
+            } else if (!sameAttributes(firstCorners[vertex], corner)) {
+                seams[vertex] = true;
+            }
+        }
+    }
+
+    private boolean sameAttributes(int cornerA, int cornerB) {
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            // compare() treats two missing values as equal
+            if (Double.compare(cornerAttributes[(cornerA * ATTRIBUTES) + i], cornerAttributes[(cornerB * ATTRIBUTES) + i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addVertexTriangle(int vertex, int triangle) {
+        if (vertexTriangles[vertex] == null) {
+            vertexTriangles[vertex] = new int[6];
+        } else if (vertexTriangleCounts[vertex] == vertexTriangles[vertex].length) {
+            int[] bigger = new int[vertexTriangles[vertex].length * 2];
+            System.arraycopy(vertexTriangles[vertex], 0, bigger, 0, vertexTriangleCounts[vertex]);
+            vertexTriangles[vertex] = bigger;
+        }
+
+        vertexTriangles[vertex][vertexTriangleCounts[vertex]++] = triangle;
+    }
+
+    private void addTriangleQuadrics() {
+        double[] normal = new double[3];
+
+        for (int t = 0; t < removedTriangles.length; t++) {
+            int a = indices[t * 3];
+            int b = indices[(t * 3) + 1];
+            int c = indices[(t * 3) + 2];
+
+            double area = faceNormal(a, b, c, positions, normal);
+            if (area == 0) {
+                continue;
+            }
+
+            double d = -1 * dot(normal, positions, a * 3);
+
+            // larger triangles count for more
+            for (int v = 0; v < 3; v++) {
+                addPlane(indices[(t * 3) + v], normal[0], normal[1], normal[2], d, area);
+            }
+
+            for (int e = 0; e < 3; e++) {
+                int from = indices[(t * 3) + e];
+                int to = indices[(t * 3) + ((e + 1) % 3)];
+
+                if (countSharedTriangles(from, to) == 1) {
+                    addBoundaryPlane(from, to, normal);
+                }
+            }
+        }
+    }
+
+    // a plane through the edge at right angles to its triangle, added to both ends of it
+    private void addBoundaryPlane(int from, int to, double[] faceNormal) {
+        double ex = positions[to * 3] - positions[from * 3];
+        double ey = positions[(to * 3) + 1] - positions[(from * 3) + 1];
+        double ez = positions[(to * 3) + 2] - positions[(from * 3) + 2];
+
+        double nx = (ey * faceNormal[2]) - (ez * faceNormal[1]);
+        double ny = (ez * faceNormal[0]) - (ex * faceNormal[2]);
+        double nz = (ex * faceNormal[1]) - (ey * faceNormal[0]);
+
+        double length = Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+        if (length == 0) {
+            return;
+        }
+
+        nx /= length;
+        ny /= length;
+        nz /= length;
+
+        double d = -1 * ((nx * positions[from * 3]) + (ny * positions[(from * 3) + 1]) + (nz * positions[(from * 3) + 2]));
+        double weight = BOUNDARY_WEIGHT * ((ex * ex) + (ey * ey) + (ez * ez));
+
+        addPlane(from, nx, ny, nz, d, weight);
+        addPlane(to, nx, ny, nz, d, weight);
+    }
+
+    private void addPlane(int vertex, double a, double b, double c, double d, double weight) {
+        int q = vertex * 10;
+
+        quadrics[q] += weight * a * a;
+        quadrics[q + 1] += weight * a * b;
+        quadrics[q + 2] += weight * a * c;
+        quadrics[q + 3] += weight * a * d;
+        quadrics[q + 4] += weight * b * b;
+        quadrics[q + 5] += weight * b * c;
+        quadrics[q + 6] += weight * b * d;
+        quadrics[q + 7] += weight * c * c;
+        quadrics[q + 8] += weight * c * d;
+        quadrics[q + 9] += weight * d * d;
+    }
+
+    private void queueEdges() {
+        for (int t = 0; t < removedTriangles.length; t++) {
+            for (int e = 0; e < 3; e++) {
+                int from = indices[(t * 3) + e];
+                int to = indices[(t * 3) + ((e + 1) % 3)];
+
+                // each edge is queued once, from the triangle where it runs from the lower index
+                if (from < to || countSharedTriangles(from, to) == 1) {
+                    queueCollapse(from, to);
+                }
+            }
+        }
+    }
+
+    private void queueCollapse(int a, int b) {
+        if (a == b || seams[a] || seams[b]) {
+            return;
+        }
+
+        double[] q = new double[10];
+        for (int i = 0; i < 10; i++) {
+            q[i] = quadrics[(a * 10) + i] + quadrics[(b * 10) + i];
+        }
+
+        double[] best = optimalPosition(q);
+        double bestCost = best == null ? Double.POSITIVE_INFINITY : error(q, best[0], best[1], best[2]);
+
+        // falls back to either end or the middle when the best position can't be found, or is outside the mesh's bounds
+        if (best == null || !withinBounds(best)) {
+            bestCost = Double.POSITIVE_INFINITY;
+
+            for (int candidate = 0; candidate < 3; candidate++) {
+                double[] position = new double[3];
+
+                for (int axis = 0; axis < 3; axis++) {
+                    double pa = positions[(a * 3) + axis];
+                    double pb = positions[(b * 3) + axis];
+                    position[axis] = candidate == 0 ? pa : (candidate == 1 ? pb : (pa + pb) / 2);
+                }
+
+                double cost = error(q, position[0], position[1], position[2]);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = position;
+                }
+            }
+        }
+
+        queue.add(new Collapse(a, b, versions[a], versions[b], bestCost, best));
+    }
+
+    // the position where the quadric's error is lowest, or null if there isn't a single one
+    private static double[] optimalPosition(double[] q) {
+        double a = q[0], b = q[1], c = q[2];
+        double d = q[4], e = q[5];
+        double f = q[7];
+
+        double det = (a * ((d * f) - (e * e))) - (b * ((b * f) - (e * c))) + (c * ((b * e) - (d * c)));
+        if (Math.abs(det) < 1e-12) {
+            return null;
+        }
+
+        double rx = -1 * q[3];
+        double ry = -1 * q[6];
+        double rz = -1 * q[8];
+
+        // cramer's rule on the symmetric 3x3 part
+        return new double[] {
+            ((rx * ((d * f) - (e * e))) - (b * ((ry * f) - (e * rz))) + (c * ((ry * e) - (d * rz)))) / det,
+            ((a * ((ry * f) - (rz * e))) - (rx * ((b * f) - (e * c))) + (c * ((b * rz) - (ry * c)))) / det,
+            ((a * ((d * rz) - (e * ry))) - (b * ((b * rz) - (ry * c))) + (rx * ((b * e) - (d * c)))) / det
+        };
+    }
+
+    private static double error(double[] q, double x, double y, double z) {
+        return (q[0] * x * x) + (2 * q[1] * x * y) + (2 * q[2] * x * z) + (2 * q[3] * x)
+            + (q[4] * y * y) + (2 * q[5] * y * z) + (2 * q[6] * y)
+            + (q[7] * z * z) + (2 * q[8] * z)
+            + q[9];
+    }
+
+    private boolean withinBounds(double[] position) {
+        for (int axis = 0; axis < 3; axis++) {
+            if (!(position[axis] >= min[axis] && position[axis] <= max[axis])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void collapseUntil(int targetTriangles) {
+        while (triangleCount > targetTriangles && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+
+            if (
+                removedVertices[collapse.kept] || removedVertices[collapse.removed] ||
+                versions[collapse.kept] != collapse.keptVersion || versions[collapse.removed] != collapse.removedVersion
+            ) {
+                continue;
+            }
+
+            if (!canCollapse(collapse.kept, collapse.removed, collapse.position)) {
+                continue;
+            }
+
+            collapse(collapse.kept, collapse.removed, collapse.position);
+        }
+    }
+
+    // collapses that would fold a triangle over, or join two parts of the surface that only meet at the edge's ends, are not made
+    private boolean canCollapse(int kept, int removed, double[] position) {
+        int shared = countSharedTriangles(kept, removed);
+
+        // for a manifold edge, the only vertices next to both ends are the far corners of the triangles on the edge
+        if (countSharedNeighbours(kept, removed) > shared) {
+            return false;
+        }
+
+        return !foldsOver(kept, removed, position) && !foldsOver(removed, kept, position);
+    }
+
+    private boolean foldsOver(int moved, int other, double[] position) {
+        double[] before = new double[3];
+        double[] after = new double[3];
+        double[] corners = new double[9];
+
+        for (int i = 0; i < vertexTriangleCounts[moved]; i++) {
+            int t = vertexTriangles[moved][i];
+
+            if (removedTriangles[t] || containsVertex(t, other)) {
+                continue;
+            }
+
+            for (int v = 0; v < 3; v++) {
+                System.arraycopy(positions, indices[(t * 3) + v] * 3, corners, v * 3, 3);
+            }
+
+            if (faceNormal(corners, before) == 0) {
+                continue;
+            }
+
+            for (int v = 0; v < 3; v++) {
+                if (indices[(t * 3) + v] == moved) {
+                    System.arraycopy(position, 0, corners, v * 3, 3);
+                }
+            }
+
+            double area = faceNormal(corners, after);
+
+            if (area == 0 || (before[0] * after[0]) + (before[1] * after[1]) + (before[2] * after[2]) < 0.2) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void collapse(int kept, int removed, double[] position) {
+        // found before any triangle around the edge is removed or changed
+        double[] merged = interpolateAttributes(kept, removed, position);
+
+        for (int i = 0; i < vertexTriangleCounts[removed]; i++) {
+            int t = vertexTriangles[removed][i];
+
+            if (removedTriangles[t]) {
+                continue;
+            }
+
+            if (containsVertex(t, kept)) {
+                removedTriangles[t] = true;
+                triangleCount--;
+            } else {
+                for (int v = 0; v < 3; v++) {
+                    if (indices[(t * 3) + v] == removed) {
+                        indices[(t * 3) + v] = kept;
+                    }
+                }
+                addVertexTriangle(kept, t);
+            }
+        }
+
+        System.arraycopy(position, 0, positions, kept * 3, 3);
+        for (int i = 0; i < 10; i++) {
+            quadrics[(kept * 10) + i] += quadrics[(removed * 10) + i];
+        }
+
+        removedVertices[removed] = true;
+        versions[kept]++;
+
+        compactVertexTriangles(kept);
+
+        for (int i = 0; i < vertexTriangleCounts[kept]; i++) {
+            int t = vertexTriangles[kept][i];
+
+            for (int v = 0; v < 3; v++) {
+                if (indices[(t * 3) + v] == kept) {
+                    System.arraycopy(merged, 0, cornerAttributes, ((t * 3) + v) * ATTRIBUTES, ATTRIBUTES);
+                }
+            }
+        }
+
+        // the edges around the moved vertex have new costs
+        for (int i = 0; i < vertexTriangleCounts[kept]; i++) {
+            int t = vertexTriangles[kept][i];
+
+            for (int v = 0; v < 3; v++) {
+                int neighbour = indices[(t * 3) + v];
+
+                if (neighbour != kept) {
+                    queueCollapse(kept, neighbour);
+                }
+            }
+        }
+    }
+
+    // the attributes at a position, interpolated across whichever triangle around either end of the edge the position is most
+    // inside of once it is dropped onto the triangle's plane. neither end is on a seam, so the triangles agree where they meet
+    private double[] interpolateAttributes(int kept, int removed, double[] position) {
+        double[] weights = new double[3];
+        double[] bestWeights = new double[3];
+        int bestTriangle = -1;
+        double bestInside = Double.NEGATIVE_INFINITY;
+
+        for (int end = 0; end < 2; end++) {
+            int vertex = end == 0 ? kept : removed;
+
+            for (int i = 0; i < vertexTriangleCounts[vertex]; i++) {
+                int t = vertexTriangles[vertex][i];
+
+                if (removedTriangles[t] || !projectedWeights(t, position, weights)) {
+                    continue;
+                }
+
+                double inside = Math.min(weights[0], Math.min(weights[1], weights[2]));
+                if (inside > bestInside) {
+                    bestInside = inside;
+                    bestTriangle = t;
+                    System.arraycopy(weights, 0, bestWeights, 0, 3);
+                }
+            }
+        }
+
+        double[] merged = new double[ATTRIBUTES];
+
+        // every triangle around the edge has no area, so the kept end's attributes are as good as any
+        if (bestTriangle == -1) {
+            int t = vertexTriangles[kept][0];
+            int corner = indices[t * 3] == kept ? 0 : (indices[(t * 3) + 1] == kept ? 1 : 2);
+
+            System.arraycopy(cornerAttributes, ((t * 3) + corner) * ATTRIBUTES, merged, 0, ATTRIBUTES);
+            return merged;
+        }
+
+        // a position outside the triangle is moved onto its nearest edge, so nothing is extrapolated
+        double total = 0;
+        for (int v = 0; v < 3; v++) {
+            bestWeights[v] = Math.max(0, bestWeights[v]);
+            total += bestWeights[v];
+        }
+
+        for (int v = 0; v < 3; v++) {
+            int a = ((bestTriangle * 3) + v) * ATTRIBUTES;
+
+            for (int i = 0; i < ATTRIBUTES; i++) {
+                merged[i] += (bestWeights[v] / total) * cornerAttributes[a + i];
+            }
+        }
+
+        double length = Math.sqrt((merged[2] * merged[2]) + (merged[3] * merged[3]) + (merged[4] * merged[4]));
+        if (length > 0) {
+            merged[2] /= length;
+            merged[3] /= length;
+            merged[4] /= length;
+        }
+
+        return merged;
+    }
+
+    // barycentric weights of a position dropped onto a triangle's plane. returns false if the triangle has no area
+    private boolean projectedWeights(int t, double[] position, double[] weights) {
+        int a = indices[t * 3] * 3;
+        int b = indices[(t * 3) + 1] * 3;
+        int c = indices[(t * 3) + 2] * 3;
+
+        double e1x = positions[b] - positions[a], e1y = positions[b + 1] - positions[a + 1], e1z = positions[b + 2] - positions[a + 2];
+        double e2x = positions[c] - positions[a], e2y = positions[c + 1] - positions[a + 1], e2z = positions[c + 2] - positions[a + 2];
+        double px = position[0] - positions[a], py = position[1] - positions[a + 1], pz = position[2] - positions[a + 2];
+
+        double d11 = (e1x * e1x) + (e1y * e1y) + (e1z * e1z);
+        double d12 = (e1x * e2x) + (e1y * e2y) + (e1z * e2z);
+        double d22 = (e2x * e2x) + (e2y * e2y) + (e2z * e2z);
+        double dp1 = (px * e1x) + (py * e1y) + (pz * e1z);
+        double dp2 = (px * e2x) + (py * e2y) + (pz * e2z);
+
+        double denominator = (d11 * d22) - (d12 * d12);
+        if (denominator == 0) {
+            return false;
+        }
+
+        weights[1] = ((d22 * dp1) - (d12 * dp2)) / denominator;
+        weights[2] = ((d11 * dp2) - (d12 * dp1)) / denominator;
+        weights[0] = 1 - weights[1] - weights[2];
+
+        return true;
+    }
+
+    // drops removed triangles, and triangles listed twice, from a vertex's list
+    private void compactVertexTriangles(int vertex) {
+        int[] list = vertexTriangles[vertex];
+        int count = 0;
+
+        for (int i = 0; i < vertexTriangleCounts[vertex]; i++) {
+            int t = list[i];
+
+            if (removedTriangles[t]) {
+                continue;
+            }
+
+            boolean listed = false;
+            for (int j = 0; j < count; j++) {
+                if (list[j] == t) {
+                    listed = true;
+                    break;
+                }
+            }
+
+            if (!listed) {
+                list[count++] = t;
+            }
+        }
+
+        vertexTriangleCounts[vertex] = count;
+    }
+
+    private boolean containsVertex(int triangle, int vertex) {
+        return indices[triangle * 3] == vertex || indices[(triangle * 3) + 1] == vertex || indices[(triangle * 3) + 2] == vertex;
+    }
+
+    private int countSharedTriangles(int a, int b) {
+        int count = 0;
+
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+
+            if (!removedTriangles[t] && containsVertex(t, b)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private int countSharedNeighbours(int a, int b) {
+        int count = 0;
+
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+
+            if (removedTriangles[t]) {
+                continue;
+            }
+
+            for (int v = 0; v < 3; v++) {
+                int neighbour = indices[(t * 3) + v];
+
+                if (neighbour != a && neighbour != b && isNeighbour(b, neighbour) && !countedBefore(a, i, v, neighbour)) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    // whether neighbour already came up earlier in the walk over a's triangles
+    private boolean countedBefore(int a, int triangleIndex, int corner, int neighbour) {
+        for (int i = 0; i <= triangleIndex; i++) {
+            int t = vertexTriangles[a][i];
+
+            if (removedTriangles[t]) {
+                continue;
+            }
+
+            int last = i == triangleIndex ? corner : 3;
+            for (int v = 0; v < last; v++) {
+                if (indices[(t * 3) + v] == neighbour) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isNeighbour(int vertex, int other) {
+        for (int i = 0; i < vertexTriangleCounts[vertex]; i++) {
+            int t = vertexTriangles[vertex][i];
+
+            if (!removedTriangles[t] && containsVertex(t, other)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // writes the unit normal of a triangle into normal, and returns its area
+    private static double faceNormal(int a, int b, int c, double[] positions, double[] normal) {
+        double[] corners = new double[9];
+        System.arraycopy(positions, a * 3, corners, 0, 3);
+        System.arraycopy(positions, b * 3, corners, 3, 3);
+        System.arraycopy(positions, c * 3, corners, 6, 3);
+
+        return faceNormal(corners, normal);
+    }
+
+    // as above, for the three corners stored as x, y, z
+    private static double faceNormal(double[] corners, double[] normal) {
+        double e1x = corners[3] - corners[0];
+        double e1y = corners[4] - corners[1];
+        double e1z = corners[5] - corners[2];
+        double e2x = corners[6] - corners[0];
+        double e2y = corners[7] - corners[1];
+        double e2z = corners[8] - corners[2];
+
+        normal[0] = (e1y * e2z) - (e1z * e2y);
+        normal[1] = (e1z * e2x) - (e1x * e2z);
+        normal[2] = (e1x * e2y) - (e1y * e2x);
+
+        double length = Math.sqrt((normal[0] * normal[0]) + (normal[1] * normal[1]) + (normal[2] * normal[2]));
+        if (length == 0) {
+            return 0;
+        }
+
+        normal[0] /= length;
+        normal[1] /= length;
+        normal[2] /= length;
+
+        return length / 2;
+    }
+
+    private static double dot(double[] normal, double[] positions, int p) {
+        return (normal[0] * positions[p]) + (normal[1] * positions[p + 1]) + (normal[2] * positions[p + 2]);
+    }
+
+    // builds the simplified triangles on new vertices. corners of vertices that never moved keep their texture coordinates and point
+    // normals, and point normals shared between triangles are still shared afterwards. every corner of a moved vertex has the same,
+    // interpolated values, so they share one point normal
+    private Mesh buildMesh(Triangle[] triangles) {
+        Point3d[] points = new Point3d[removedVertices.length];
+        IdentityHashMap<Vector3d, Vector3d> normals = new IdentityHashMap<>();
+        Vector3d[] movedNormals = new Vector3d[removedVertices.length];
+        UV[] movedUVs = new UV[removedVertices.length];
+
+        Triangle[] simplified = new Triangle[triangleCount];
+        int current = 0;
+
+        for (int t = 0; t < triangles.length; t++) {
+            if (removedTriangles[t]) {
+                continue;
+            }
+
+            Point3d[] corners = new Point3d[3];
+            Vector3d[] cornerNormals = new Vector3d[3];
+            UV[] cornerUVs = new UV[3];
+
+            Vector3d[] sourceNormals = triangles[t].getPointNormals();
+            UV[] sourceUVs = triangles[t].getTextureCoords();
+
+            for (int v = 0; v < 3; v++) {
+                int index = indices[(t * 3) + v];
+
+                if (points[index] == null) {
+                    points[index] = new Point3d(positions[index * 3], positions[(index * 3) + 1], positions[(index * 3) + 2]);
+                }
+                corners[v] = points[index];
+
+                if (versions[index] == 0) {
+                    Vector3d normal = sourceNormals == null ? null : sourceNormals[v];
+                    if (normal != null) {
+                        cornerNormals[v] = normals.computeIfAbsent(normal, Vector3d::copy);
+                    }
+
+                    cornerUVs[v] = sourceUVs == null ? null : sourceUVs[v];
+                } else {
+                    if (movedUVs[index] == null) {
+                        loadMovedAttributes(t, v, index, movedNormals, movedUVs);
+                    }
+
+                    cornerNormals[v] = movedNormals[index];
+                    cornerUVs[v] = movedUVs[index];
+                }
+            }
+
+            Triangle tri = new Triangle(corners[0], corners[1], corners[2], cornerNormals[0], cornerNormals[1], cornerNormals[2]);
+
+            if (sourceUVs != null) {
+                tri.setTextureCoords(cornerUVs[0], cornerUVs[1], cornerUVs[2]);
+            }
+
+            simplified[current] = tri;
+            current++;
+        }
+
+        return new Mesh(simplified);
+    }
+
+    private void loadMovedAttributes(int t, int corner, int vertex, Vector3d[] movedNormals, UV[] movedUVs) {
+        int a = ((t * 3) + corner) * ATTRIBUTES;
+
+        movedUVs[vertex] = new UV(cornerAttributes[a], cornerAttributes[a + 1]);
+
+        if (!Double.isNaN(cornerAttributes[a + 2])) {
+            movedNormals[vertex] = new Vector3d(cornerAttributes[a + 2], cornerAttributes[a + 3], cornerAttributes[a + 4]);
+        }
+    }
+}
@@ -58,16 +58,17 @@ public class ObjReader {
 
         String[][] lines = linesList.toArray(String[][]::new);
         
-        Point3d[] vertices = Arrays.stream(lines)
+        String[][] vertexLines = Arrays.stream(lines)
             .filter(s -> s[0].equals("v"))
-            .map(s -> 
-                new Point3d(
-                    parseDouble(s[1]),
-                    parseDouble(s[2]),
-                    parseDouble(s[3])
-                )
-            )
-            .toArray(Point3d[]::new);
+            .toArray(String[][]::new);
+
+        // the file's vertex list is already indexed, so it becomes the Mesh's vertex buffer as is
+        VertexBuffer vertexBuffer = new VertexBuffer(vertexLines.length);
+        for (int i = 0; i < vertexLines.length; i++) {
+            vertexBuffer.setPosition(i, parseDouble(vertexLines[i][1]), parseDouble(vertexLines[i][2]), parseDouble(vertexLines[i][3]));
+        }
+
+        Point3d[] vertices = vertexBuffer.points();
             
         Vector3d[] vertexNormals = Arrays.stream(lines)
             .filter(s -> s[0].equals("vn"))
@@ -91,6 +92,7 @@ public class ObjReader {
             .toArray(UV[]::new);
 
         LinkedList<Triangle> triangleList = new LinkedList<>();
+        LinkedList<Integer> indexList = new LinkedList<>();
 
         Arrays.stream(lines)
             .filter(s -> s[0].equals("f"))
@@ -132,10 +134,17 @@ public class ObjReader {
                     );
 
                     triangleList.add(tri);
+                    indexList.add(args[0].vertex());
+                    indexList.add(args[i].vertex());
+                    indexList.add(args[i+1].vertex());
                 }
             });
 
-        return new Mesh(triangleList.toArray(Triangle[]::new));
+        return new Mesh(
+            triangleList.toArray(Triangle[]::new),
+            vertexBuffer,
+            indexList.stream().mapToInt(Integer::intValue).toArray()
+        );
     }
 }
 
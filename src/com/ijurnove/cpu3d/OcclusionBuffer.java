@@ -0,0 +1,225 @@
+package com.ijurnove.cpu3d;
+import java.util.Arrays;
+
+// a small depth buffer that occluder shapes are drawn into before the rest of the scene is projected. shapes whose
+// bounding box is behind it everywhere they could land on the screen are skipped. every value is the farthest the
+// occluder could be within its pixel, so nothing that could be seen past an occluder is ever skipped
+class OcclusionBuffer {
+    private static final double EMPTY = Double.POSITIVE_INFINITY;
+    // highest number of texels across a box may cover at the level it is tested at
+    private static final int TEST_SPAN = 4;
+
+    private final int width;
+    private final int height;
+
+    // level 0 is the buffer itself, and each level above holds the farthest depth of each 2x2 block of the level below it
+    private final double[][] levels;
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+
+    // the camera the buffer was last drawn from, and how the color map's pixels scale onto the buffer's
+    private Matrix4 view;
+    private double tanFov;
+    private int pixelWidth;
+    private int pixelHeight;
+    private double scaleX;
+    private double scaleY;
+
+    // a box corner being tested. isOccluded() is only called by the thread building the frame, so it can be shared
+    private final double[] corner = new double[3];
+
+    protected OcclusionBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        int levelCount = 1;
+        while ((width >> (levelCount - 1)) > 1 || (height >> (levelCount - 1)) > 1) {
+            levelCount++;
+        }
+
+        this.levels = new double[levelCount][];
+        this.levelWidths = new int[levelCount];
+        this.levelHeights = new int[levelCount];
+
+        for (int level = 0; level < levelCount; level++) {
+            levelWidths[level] = Math.max(1, (width + (1 << level) - 1) >> level);
+            levelHeights[level] = Math.max(1, (height + (1 << level) - 1) >> level);
+            levels[level] = new double[levelWidths[level] * levelHeights[level]];
+        }
+    }
+
+    // empties the buffer, ready to draw occluders seen from cam
+    protected void clear(Camera cam) {
+        Scene scene = cam.getParent();
+
+        this.view = cam.getViewMatrix();
+        this.tanFov = Math.tan(Math.toRadians(cam.getFov()) / 2);
+        this.pixelWidth = scene.getPixelWidth();
+        this.pixelHeight = scene.getPixelHeight();
+        this.scaleX = (double) width / scene.getColorMap().getWidth();
+        this.scaleY = (double) height / scene.getColorMap().getHeight();
+
+        Arrays.fill(levels[0], EMPTY);
+    }
+
+    // draws every triangle of an already projected shape that the main pass would draw
+    protected void drawShape(ProjectedVertices projected, boolean backfaceCulling) {
+        int[] indices = projected.getMesh().getIndices();
+
+        for (int i = 0; i < indices.length; i += 3) {
+            int v1 = indices[i];
+            int v2 = indices[i + 1];
+            int v3 = indices[i + 2];
+
+            if (projected.isInFront(v1, v2, v3) && (projected.isFacingViewer(v1, v2, v3) || !backfaceCulling)) {
+                drawTriangle(projected, v1, v2, v3);
+            }
+        }
+    }
+
+    private void drawTriangle(ProjectedVertices p, int v1, int v2, int v3) {
+        double x1 = p.xRend(v1) * scaleX, y1 = p.yRend(v1) * scaleY, z1 = p.depth(v1);
+        double x2 = p.xRend(v2) * scaleX, y2 = p.yRend(v2) * scaleY, z2 = p.depth(v2);
+        double x3 = p.xRend(v3) * scaleX, y3 = p.yRend(v3) * scaleY, z3 = p.depth(v3);
+
+        double area = ((x2 - x1) * (y3 - y1)) - ((x3 - x1) * (y2 - y1));
+        if (Math.abs(area) < 1e-9) {
+            return;
+        }
+
+        // depth is interpolated across the screen the same way the rasterizer does it, as a plane z = dzdx * x + dzdy * y + z0
+        double dzdx = (((z2 - z1) * (y3 - y1)) - ((z3 - z1) * (y2 - y1))) / area;
+        double dzdy = (((z3 - z1) * (x2 - x1)) - ((z2 - z1) * (x3 - x1))) / area;
+        double z0 = z1 - (dzdx * x1) - (dzdy * y1);
+        double farthestVertex = Math.max(z1, Math.max(z2, z3));
+
+        int minCol = Math.max(0, (int) Math.floor(Math.min(x1, Math.min(x2, x3))));
+        int maxCol = Math.min(width - 1, (int) Math.ceil(Math.max(x1, Math.max(x2, x3))));
+        int minRow = Math.max(0, (int) Math.floor(Math.min(y1, Math.min(y2, y3))));
+        int maxRow = Math.min(height - 1, (int) Math.ceil(Math.max(y1, Math.max(y2, y3))));
+
+        double[] depths = levels[0];
+
+        for (int row = minRow; row <= maxRow; row++) {
+            double py = row + 0.5;
+
+            for (int col = minCol; col <= maxCol; col++) {
+                double px = col + 0.5;
+
+                double w1 = ((x2 - px) * (y3 - py)) - ((x3 - px) * (y2 - py));
+                double w2 = ((x3 - px) * (y1 - py)) - ((x1 - px) * (y3 - py));
+                double w3 = ((x1 - px) * (y2 - py)) - ((x2 - px) * (y1 - py));
+
+                boolean inside = area > 0 ? (w1 >= 0 && w2 >= 0 && w3 >= 0) : (w1 <= 0 && w2 <= 0 && w3 <= 0);
+                if (!inside) {
+                    continue;
+                }
+
+                // the plane is farthest at one of the pixel's corners
+                double farthest = z0 + (dzdx * (dzdx > 0 ? col + 1 : col)) + (dzdy * (dzdy > 0 ? row + 1 : row));
+                farthest = Math.min(farthest, farthestVertex);
+
+                int index = (row * width) + col;
+                if (farthest < depths[index]) {
+                    depths[index] = farthest;
+                }
+            }
+        }
+    }
+
+    // fills in the levels above the buffer, call once every occluder has been drawn
+    protected void buildLevels() {
+        for (int level = 1; level < levels.length; level++) {
+            double[] below = levels[level - 1];
+            double[] above = levels[level];
+            int belowWidth = levelWidths[level - 1];
+            int belowHeight = levelHeights[level - 1];
+
+            for (int row = 0; row < levelHeights[level]; row++) {
+                for (int col = 0; col < levelWidths[level]; col++) {
+                    int belowCol = col * 2;
+                    int belowRow = row * 2;
+                    int nextCol = Math.min(belowCol + 1, belowWidth - 1);
+                    int nextRow = Math.min(belowRow + 1, belowHeight - 1);
+
+                    above[(row * levelWidths[level]) + col] = Math.max(
+                        Math.max(below[(belowRow * belowWidth) + belowCol], below[(belowRow * belowWidth) + nextCol]),
+                        Math.max(below[(nextRow * belowWidth) + belowCol], below[(nextRow * belowWidth) + nextCol])
+                    );
+                }
+            }
+        }
+    }
+
+    // true if everything inside the box is behind the occluders drawn so far
+    protected boolean isOccluded(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        double screenMinX = Double.POSITIVE_INFINITY;
+        double screenMaxX = Double.NEGATIVE_INFINITY;
+        double screenMinY = Double.POSITIVE_INFINITY;
+        double screenMaxY = Double.NEGATIVE_INFINITY;
+        double nearestDepth = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < 8; i++) {
+            corner[0] = (i & 1) == 0 ? minX : maxX;
+            corner[1] = (i & 2) == 0 ? minY : maxY;
+            corner[2] = (i & 4) == 0 ? minZ : maxZ;
+            view.transformPosition(corner, 0);
+
+            double depth = -1 * corner[2];
+
+            // a box reaching behind the camera can cover any part of the screen
+            if (depth <= 0) {
+                return false;
+            }
+
+            // follows VertexBuffer.perspProjection
+            double x = ((corner[0] / depth / tanFov) * pixelWidth) + (pixelWidth / 2);
+            double y = ((corner[1] / depth / tanFov) * pixelHeight * -2) + (pixelHeight / 2);
+
+            screenMinX = Math.min(screenMinX, x);
+            screenMaxX = Math.max(screenMaxX, x);
+            screenMinY = Math.min(screenMinY, y);
+            screenMaxY = Math.max(screenMaxY, y);
+            nearestDepth = Math.min(nearestDepth, depth);
+        }
+
+        // a pixel counts as covered when its center is, so the box is grown by a pixel to make up for occluder edges
+        int minCol = Math.max(0, (int) Math.floor(screenMinX * scaleX) - 1);
+        int maxCol = Math.min(width - 1, (int) Math.floor(screenMaxX * scaleX) + 1);
+        int minRow = Math.max(0, (int) Math.floor(screenMinY * scaleY) - 1);
+        int maxRow = Math.min(height - 1, (int) Math.floor(screenMaxY * scaleY) + 1);
+
+        if (minCol > maxCol || minRow > maxRow) {
+            return false;
+        }
+
+        // the lowest level where the box covers only a few texels
+        int level = 0;
+        while (
+            level < levels.length - 1 &&
+            (((maxCol >> level) - (minCol >> level)) >= TEST_SPAN || ((maxRow >> level) - (minRow >> level)) >= TEST_SPAN)
+        ) {
+            level++;
+        }
+
+        double[] depths = levels[level];
+        int levelWidth = levelWidths[level];
+
+        for (int row = minRow >> level; row <= maxRow >> level; row++) {
+            for (int col = minCol >> level; col <= maxCol >> level; col++) {
+                if (!(depths[(row * levelWidth) + col] < nearestDepth)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    protected boolean isOccluded(Bounds bounds) {
+        return isOccluded(
+            bounds.minValue(0), bounds.minValue(1), bounds.minValue(2),
+            bounds.maxValue(0), bounds.maxValue(1), bounds.maxValue(2)
+        );
+    }
+}
@@ -1,11 +1,9 @@
 package com.ijurnove.cpu3d;
-import static java.lang.Math.cos;
-import static java.lang.Math.sin;
-import java.util.ArrayList;
 
 /**
- * A <code>Point3d</code> is a specific point in 3D space. <code>Point3d</code> objects store two different positions as <code>Matrix</code>es,
- * one for its position in 3D space, and one for its position on the screen.
+ * A <code>Point3d</code> is a specific point in 3D space. <code>Point3d</code> objects have two different positions, one for its position in 3D space, 
+ * and one for its position on the screen. The vertices of a <code>Mesh</code> are stored in a shared buffer along with the other vertices of the
+ * same <code>Mesh</code>, and can't be moved once the <code>Mesh</code> is built.
  */
 public class Point3d implements Translatable, Rotatable, Scalable {
     /**
@@ -13,28 +11,21 @@ public class Point3d implements Translatable, Rotatable, Scalable {
      */
     public static final Point3d ORIGIN = new Point3d(0, 0, 0);
 
-    private Matrix pos;
-    private final Matrix renderCoords;
-
-    private final ArrayList<Triangle> adjacentTris = new ArrayList<>();
+    // where this point's data is stored
+    private VertexBuffer buffer;
+    private int index;
 
     /**
      * Constructs a <code>Point3d</code> at the coordinates specified in a given <code>Matrix</code>. The <code>Matrix</code> should have 1 column and 3 or 4 rows. Row 1 is the 
-     * X position, row 2 is the Y, and row 3 is the Z.
+     * X position, row 2 is the Y, and row 3 is the Z. The values are copied, so later changes to the <code>Matrix</code> don't move the point.
      * @param pos the Matrix representing the constructed Point3d's coordinates
      */
     public Point3d(Matrix pos) {
+        this(pos.getValue(0, 0), pos.getValue(0, 1), pos.getValue(0, 2));
+
         if (!(pos.rowCount() == 4 || pos.rowCount() == 3) && pos.columnCount() != 1) {
             throw new ArrayIndexOutOfBoundsException("Wrong matrix dimensions for Point3d!");
         }
-        this.pos = pos;
-
-        this.renderCoords = new Matrix(new double[][] {
-            {pos.getValue(0, 0)},
-            {pos.getValue(0, 1)},
-            {pos.getValue(0, 2)},
-            {1}
-        });
     }
 
     /**
@@ -44,58 +35,68 @@ public class Point3d implements Translatable, Rotatable, Scalable {
      * @param z the Z position of the constructed Point3d
      */
     public Point3d(double x, double y, double z) {
-        this(new Matrix(new double[][] {
-            {x},
-            {y},
-            {z},
-            {1}
-        })
-        );
+        this.buffer = new VertexBuffer(1);
+        this.index = 0;
+
+        buffer.setPosition(0, x, y, z);
+        buffer.setRender(0, x, y, z, 1);
+    }
+
+    // a view of a vertex already stored in a buffer
+    protected Point3d(VertexBuffer buffer, int index) {
+        this.buffer = buffer;
+        this.index = index;
     }
 
-    protected void addAdjTri(Triangle tri) { this.adjacentTris.add(tri); }
-    protected ArrayList<Triangle> getAdjacentTris() { return this.adjacentTris; }
+    // moves this point's data into another buffer
+    protected void moveTo(VertexBuffer newBuffer, int newIndex) {
+        newBuffer.setPosition(newIndex, xReal(), yReal(), zReal());
+        newBuffer.setRender(newIndex, xRend(), yRend(), depth(), wRend());
 
-    protected Matrix getMatrix() { return this.pos; }
-    protected Matrix getRenderCoords() { return this.renderCoords; }
+        this.buffer = newBuffer;
+        this.index = newIndex;
+    }
 
-    protected double[][] renderArray() { return this.renderCoords.getValues(); }
+    protected VertexBuffer getBuffer() { return this.buffer; }
+    protected int getIndex() { return this.index; }
 
     /**
      * Returns the X position on the screen. 
      * @return the X position on the screen
      */
-    public double xRend() { return this.renderCoords.getValue(0, 0); }
+    public double xRend() { return buffer.xRend(index); }
 
     /**
      * Returns the Y position on the screen. 
      * @return the Y position on the screen
      */
-    public double yRend() { return this.renderCoords.getValue(0, 1); }
+    public double yRend() { return buffer.yRend(index); }
 
     /**
      * Returns the depth of this <code>Point3d</code>, or how far away it is from the camera.
      * @return the depth
      */
-    public double depth() { return this.renderCoords.getValue(0, 2); }
+    public double depth() { return buffer.depth(index); }
+
+    protected double wRend() { return buffer.wRend(index); }
 
     /**
      * Returns the X position in 3D space. 
      * @return the X position in 3D space
      */
-    public double xReal() { return this.pos.getValue(0, 0); }
+    public double xReal() { return buffer.x(index); }
     
     /**
      * Returns the Y position in 3D space. 
      * @return the Y position in 3D space
      */
-    public double yReal() { return this.pos.getValue(0, 1); }
+    public double yReal() { return buffer.y(index); }
     
     /**
      * Returns the Z position in 3D space. 
      * @return the Z position in 3D space
      */
-    public double zReal() { return this.pos.getValue(0, 2); }
+    public double zReal() { return buffer.z(index); }
 
     /**
      * Returns a copy of this Point3d with a new reference.
@@ -106,11 +107,11 @@ public class Point3d implements Translatable, Rotatable, Scalable {
     }
 
     protected void shiftValue(int axis, double distance) {
-        pos.setValue(0, axis, pos.getValue(0, axis) + distance);
+        buffer.setAxis(index, axis, buffer.getAxis(index, axis) + distance);
     }
     
     private void setValue(int axis, double newPos) {
-        pos.setValue(0, axis, newPos);
+        buffer.setAxis(index, axis, newPos);
     }
 
     /**
@@ -154,104 +155,29 @@ public class Point3d implements Translatable, Rotatable, Scalable {
 
     // goes around origin
     protected void rotate(int axis, double theta) {
-        Matrix rotMatrix;
-        
-        // x axis
-        switch (axis) {
-            case 0 -> rotMatrix = new Matrix(
-                        new double[][] {
-                            new double[] {1, 0, 0, 0},
-                            new double[] {0, cos(theta), -1 * sin(theta), 0},
-                            new double[] {0, sin(theta), cos(theta), 0},
-                            new double[] {0, 0, 0, 0}
-                        }
-                );
-            case 1 -> rotMatrix = new Matrix(
-                        new double[][] {
-                            new double[] {cos(theta), 0, sin(theta), 0},
-                            new double[] {0, 1, 0, 0},
-                            new double[] {-1 * sin(theta), 0, cos(theta), 0},
-                            new double[] {0, 0, 0, 0}
-                        }
-                );
-            case 2 -> rotMatrix = new Matrix(
-                        new double[][] {
-                            new double[] {cos(theta), -1 * sin(theta), 0, 0},
-                            new double[] {sin(theta), cos(theta), 0, 0},
-                            new double[] {0, 0, 1, 0},
-                            new double[] {0, 0, 0, 0}
-                        }
-                );
-            default -> {
-                rotMatrix = new Matrix(
-                    new double[][] {
-                        {}
-                    }
-                );
-            }
-        }
-
-        pos.setValues(Matrix.multiply(rotMatrix, this.pos));
-        pos.setValue(0, 3, 1);
+        transform(Matrix4.rotation(axis, theta));
     }
 
-    // updates renderCoords to relative position to cam - call 1st
-    private void updRelativePos(Camera cam) {
-        this.renderCoords.setValues(
-            // multiplies: posOffsetMatrix * horRotMatrix * vertRotMatrix * AXIS_CONV_MATRIX * point.getMatrix()
-            Matrix.multiply(cam.getVertRotMatrix(), Matrix.multiply(
-            cam.getHorRotMatrix(), Matrix.multiply(
-            Matrix.AXIS_CONV_MATRIX, Matrix.multiply(
-            cam.getPosOffsetMatrix(), this.getMatrix()
-            )))));
-
-
-        double hold = this.renderCoords.getValue(0, 0);
-        this.renderCoords.setValue(0, 0, renderCoords.getValue(0, 1));
-        this.renderCoords.setValue(0, 1, hold);
+    // rotates around a point using a rotation matrix from Matrix4.rotation(), so shapes can build it once for all their points
+    protected void rotate(Matrix4 rotMatrix, Point3d point) {
+        translate(-1 * point.xReal(), -1 * point.yReal(), -1 * point.zReal());
+        transform(rotMatrix);
+        translate(point.xReal(), point.yReal(), point.zReal());
     }
 
-    private void updRelativePosUsingLookAtWithLineOfSight(Camera cam) {
-        double x = this.xReal();
-        this.setX(this.yReal());
-        this.setY(x);
-
-        this.renderCoords.setValues(
-            Matrix.multiply(
-                cam.lookAtWithLineOfSight(),
-                this.pos
-            )
-        );
-
-        double hold = this.renderCoords.getValue(0, 0);
-        this.renderCoords.setValue(0, 0, renderCoords.getValue(0, 1));
-        this.renderCoords.setValue(0, 1, hold);
-
-        double x2 = this.xReal();
-        this.setX(this.yReal());
-        this.setY(x2);
+    protected void transform(Matrix4 m) {
+        buffer.transform(index, m);
     }
 
     protected void perspProjection(Camera cam) {
-        updRelativePos(cam);
-
-        renderCoords.perspRenderUpd(cam);
+        buffer.perspProjection(cam, cam.getViewMatrix(), index);
     }
 
     protected void perspProjectionForPointShadowMap(Camera cam) {
-        updRelativePosUsingLookAtWithLineOfSight(cam);
-        
-        renderCoords.perspRenderUpdForPointShadowMap(cam);
+        buffer.perspProjectionForPointShadowMap(cam, cam.getLookAtMatrix(), index);
     }
 
-    protected void orthoProjection(Camera cam) {
-        renderCoords.setValues(
-            Matrix.multiply(
-                Matrix.multiply(cam.getOrthoMatrix(), cam.lookAtMatrixToOrigin()),
-                this.getMatrix())
-        );
-
-        renderCoords.orthoRenderUpd(cam);
+    protected void orthoProjection(Camera cam, Matrix4 view) {
+        buffer.orthoProjection(cam, view, index);
     }
-    
 }
@@ -1,4 +1,5 @@
 package com.ijurnove.cpu3d;
+import java.util.List;
 
 /**
  * <code>PointLight</code> extends the abstract class <code>Light</code>. A <code>PointLight</code> illuminates the area around it. Shadow
@@ -12,6 +13,8 @@ package com.ijurnove.cpu3d;
 public class PointLight extends Light implements Translatable, Rotatable, Scalable {
     private final Point3d pos;
     private ShadowMap[] cubeMap;
+    // the cube face looking down each axis, at axis * 2 for the negative direction and axis * 2 + 1 for the positive
+    private final int[] faceAlongAxis = new int[6];
     private double decayPow = 3;
 
     /**
@@ -55,6 +58,12 @@ public class PointLight extends Light implements Translatable, Rotatable, Scalab
                 cams[i]
             );
             // System.out.println(cams[i].getPhi() + "," + cams[i].getTheta());
+
+            Vector3d lineOfSight = cams[i].lineOfSight();
+            int axis = dominantAxis(lineOfSight.x(), lineOfSight.y(), lineOfSight.z());
+            double direction = axis == 0 ? lineOfSight.x() : (axis == 1 ? lineOfSight.y() : lineOfSight.z());
+
+            faceAlongAxis[(axis * 2) + (direction > 0 ? 1 : 0)] = i;
         }
     }
 
@@ -71,36 +80,41 @@ public class PointLight extends Light implements Translatable, Rotatable, Scalab
     public double getDecay() { return this.decayPow; }
 
     @Override
-    protected void updateShadowMap() {
+    protected void updateShadowMap(List<ShadowMap> redrawn) {
         for (ShadowMap map : cubeMap) {
-            map.updateDepthMap(this.getParent());
+            if (map.prepareDepthMap(this.getParent())) {
+                redrawn.add(map);
+            }
         }
     }
 
     @Override
     protected double shadowValue(Point3d point) {
-        double[] vals = new double[6];
-        double totalShadow = 0;
-        int timesSeen = 0;
+        double x = point.xReal();
+        double y = point.yReal();
+        double z = point.zReal();
 
-        for (int i = 0; i < 6; i++) {
-            vals[i] = cubeMap[i].shadowValue(point);
-        }
-        
-        for (double d : vals) {
-            if (d != -1) {
-                timesSeen++;
-            }
-            if (d > 0) {
-                totalShadow = d;
-            }
-        }
-        
-        if (timesSeen == 0) {
-            return -1;
+        // a point is always on the face looking down the axis it is furthest along from the light, so only that one is sampled
+        double toX = x - pos.xReal();
+        double toY = y - pos.yReal();
+        double toZ = z - pos.zReal();
+
+        int axis = dominantAxis(toX, toY, toZ);
+        double direction = axis == 0 ? toX : (axis == 1 ? toY : toZ);
+
+        return cubeMap[faceAlongAxis[(axis * 2) + (direction > 0 ? 1 : 0)]].shadowValuePersp(x, y, z);
+    }
+
+    private static int dominantAxis(double x, double y, double z) {
+        double absX = Math.abs(x);
+        double absY = Math.abs(y);
+        double absZ = Math.abs(z);
+
+        if (absX >= absY && absX >= absZ) {
+            return 0;
         }
 
-        return totalShadow;
+        return absY >= absZ ? 1 : 2;
     }
 
     @Override
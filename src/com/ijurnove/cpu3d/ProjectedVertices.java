@@ -0,0 +1,66 @@
+package com.ijurnove.cpu3d;
+
+// screen coordinates of the vertices of one shape, as drawn through one camera. a Mesh can be drawn by any number of
+// shapes, so it holds no screen coordinates itself. the scene keeps a single ProjectedVertices, and projects each shape
+// into it in turn, just before its triangles are copied out into a DrawList, an OcclusionBuffer or a ShadowMap
+class ProjectedVertices {
+    // screen x, screen y, depth and w of every vertex of mesh
+    private double[] coords = new double[0];
+    private Mesh mesh;
+
+    // the shape's model transform followed by the camera's view, so each vertex is only transformed once
+    private final Matrix4 modelView = new Matrix4();
+    private final Matrix4 swappedModel = new Matrix4();
+
+    protected Mesh getMesh() { return this.mesh; }
+
+    protected double xRend(int vertex) { return coords[vertex * 4]; }
+    protected double yRend(int vertex) { return coords[(vertex * 4) + 1]; }
+    protected double depth(int vertex) { return coords[(vertex * 4) + 2]; }
+
+    // projects the version of shape drawn this frame through cam's view matrix
+    protected void perspProjection(Shape3d shape, Camera cam) {
+        load(shape);
+        Matrix4.multiplyInto(cam.getViewMatrix(), shape.getModel(), modelView);
+        mesh.getVertexBuffer().perspProjection(cam, modelView, coords);
+    }
+
+    // projects the version of shape drawn this frame onto the face of a point light's shadow map that cam looks through.
+    // shadow map cameras work with X and Y swapped, which swapping the first two rows of the model transform does
+    protected void perspProjectionForPointShadowMap(Shape3d shape, Camera cam) {
+        load(shape);
+        swappedModel.setValues(shape.getModel());
+        swappedModel.swapRows(0, 1);
+        Matrix4.multiplyInto(cam.getLookAtMatrix(), swappedModel, modelView);
+        mesh.getVertexBuffer().perspProjectionForPointShadowMap(cam, modelView, coords);
+    }
+
+    // projects the version of shape drawn this frame onto an orthographic shadow map through view
+    protected void orthoProjection(Shape3d shape, Camera cam, Matrix4 view) {
+        load(shape);
+        Matrix4.multiplyInto(view, shape.getModel(), modelView);
+        mesh.getVertexBuffer().orthoProjection(cam, modelView, coords);
+    }
+
+    private void load(Shape3d shape) {
+        this.mesh = shape.drawnMesh();
+
+        int needed = mesh.getVertexBuffer().size() * 4;
+        if (coords.length < needed) {
+            coords = new double[needed];
+        }
+    }
+
+    // true if the triangle with the given vertices winds the way triangles facing the camera do on screen
+    protected boolean isFacingViewer(int v1, int v2, int v3) {
+        double firstPart = (xRend(v2) - xRend(v1)) * (yRend(v3) - yRend(v1));
+        double secondPart = (xRend(v3) - xRend(v1)) * (yRend(v2) - yRend(v1));
+
+        return firstPart < secondPart;
+    }
+
+    // true if every vertex of the triangle is in front of the camera
+    protected boolean isInFront(int v1, int v2, int v3) {
+        return depth(v1) > 0 && depth(v2) > 0 && depth(v3) > 0;
+    }
+}
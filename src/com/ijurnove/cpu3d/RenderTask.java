@@ -1,106 +1,148 @@
 package com.ijurnove.cpu3d;
-import java.util.Arrays;
-import java.util.stream.Stream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// renders a single tile of the screen. tiles are small and numerous, and are run on a work-stealing
+// pool so idle threads pick up tiles from busy ones no matter where the geometry is on screen
+class RenderTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    // how the pixels of a frame are shaded
+    protected enum ShadingMode {
+        // lighting is calculated as each pixel is drawn
+        FORWARD,
+        // depth is drawn first, then each visible pixel is lit once
+        DEPTH_PREPASS,
+        // surface data is drawn into a G-buffer, then lit in a separate pass over the whole screen
+        DEFERRED
+    }
 
-class RenderTask implements Runnable {
     private final int minX;
     private final int minY;
     private final int maxX;
     private final int maxY;
 
-    private boolean rendering = false;
-    
-    private Stream<Triangle> triangles;
+    private final int tile;
+    private final TileBins tileBins;
 
     private final ColorMap colorMap;
+    // a tile only ever runs on one thread at a time, so its pixels can share scratch values
+    private final LightCalc.Scratch lighting = new LightCalc.Scratch();
+
+    private ShadingMode mode = ShadingMode.FORWARD;
 
 
-    protected RenderTask(int minX, int minY, int maxX, int maxY, ColorMap colorMap) {
+    protected RenderTask(int minX, int minY, int maxX, int maxY, ColorMap colorMap, int tile, TileBins tileBins) {
         this.minX = minX;
         this.minY = minY;
         this.maxX = maxX;
         this.maxY = maxY;
 
         this.colorMap = colorMap;
+
+        this.tile = tile;
+        this.tileBins = tileBins;
     }
 
     @Override
-    public void run() {
-        this.renderLoop();
-    }
+    protected void compute() {
+        int[] bin = tileBins.getBin(tile);
+        int binSize = tileBins.binSize(tile);
 
-    private synchronized void renderLoop() {
-        while (true) {
-            if (rendering && triangles != null) {
-                triangles.filter(t -> t.overlapsWithRect(minX, minY, maxX, maxY))
-                    .forEach(t -> {
-                    this.colorMap.drawTriangle(t, minX, minY, maxX, maxY); 
-                    
-            });
-                rendering = false;
-            } else {
-                try {
-                    this.wait();
-                } catch (InterruptedException e) {}
+        switch (mode) {
+            case DEPTH_PREPASS -> {
+                for (int i = 0; i < binSize; i++) {
+                    this.colorMap.drawTriangleDepth(bin[i], minX, minY, maxX, maxY);
+                }
+
+                this.colorMap.shadeVisible(minX, minY, maxX, maxY, lighting);
+            }
+            case DEFERRED -> {
+                for (int i = 0; i < binSize; i++) {
+                    this.colorMap.drawTriangleGBuffer(bin[i], minX, minY, maxX, maxY, lighting);
+                }
+            }
+            default -> {
+                for (int i = 0; i < binSize; i++) {
+                    this.colorMap.drawTriangle(bin[i], minX, minY, maxX, maxY, lighting);
+                }
             }
         }
     }
 
-    protected boolean isRendering() { return this.rendering; }
-
-    protected static void allAssignTris(RenderTask[] tasks, Triangle[] tris) {
-        for (RenderTask thr : tasks) {
-            thr.assignTris(tris);
+    // bins the triangles and renders every tile, returning once the whole frame is done
+    protected static void renderFrame(ForkJoinPool pool, ColorMap colorMap, RenderTask[] tasks, TileBins tileBins, DrawList drawn, ShadingMode mode) {
+        for (RenderTask task : tasks) {
+            task.reinitialize();
+            task.mode = mode;
         }
-    }
 
-    protected static void allStartRendering(RenderTask[] tasks) {
-        for (RenderTask thr : tasks) {
-            thr.startRendering();
-        }
-    }
+        colorMap.prepareShading(mode, drawn);
 
-    protected void assignTris(Triangle[] tris) {
-        this.triangles = Arrays.stream(tris);
-    }
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            tileBins.bin(drawn);
+            ForkJoinTask.invokeAll(tasks);
 
-    synchronized protected void startRendering() {
-        this.rendering = true;
-        notify();
+            // lighting can only start once every tile has filled in its part of the G-buffer
+            if (mode == ShadingMode.DEFERRED) {
+                colorMap.lightGBuffer();
+            }
+        }));
     }
 
-    protected static RenderTask[] initRenderThreads(Scene scene) {
-        RenderTask[] tasks = createTasks(scene.getColorMap(), (int) scene.getInitFlag(SceneInitFlag.THREADS_ACROSS), (int) scene.getInitFlag(SceneInitFlag.THREADS_UP));
-
-        Thread[] runningThreads = new Thread[tasks.length];
-        for (int i = 0; i < tasks.length; i++) {
-            runningThreads[i] = new Thread(tasks[i]);
-            runningThreads[i].setDaemon(true);
-            runningThreads[i].start();
+    protected static ForkJoinPool createPool(Scene scene) {
+        int threads = (int) scene.getInitFlag(SceneInitFlag.RENDER_THREADS);
+        if (threads < 1) {
+            throw new RuntimeException("A Scene needs at least 1 render thread, not " + threads);
         }
 
-        return tasks;
+        return new ForkJoinPool(threads);
+    }
+
+    protected static TileBins createTileBins(Scene scene) {
+        ColorMap cMap = scene.getColorMap();
+        int tileSize = tileSize(scene);
+
+        return new TileBins(tileSize, tileSize, cMap.getWidth(), cMap.getHeight());
     }
 
-    private static RenderTask[] createTasks(ColorMap cMap, int horizThreads, int vertThreads) {
+    protected static RenderTask[] createTasks(Scene scene, TileBins tileBins) {
+        ColorMap cMap = scene.getColorMap();
+        int tileSize = tileSize(scene);
+
         int cMapWidth = cMap.getWidth();
         int cMapHeight = cMap.getHeight();
-        
-        int thrWidth = cMapWidth / horizThreads;
-        int thrHeight = cMapHeight / vertThreads;
 
-        RenderTask[] threads = new RenderTask[horizThreads * vertThreads];
+        // the last row and column of tiles are cut off at the edge of the screen
+        int tilesAcross = (cMapWidth + tileSize - 1) / tileSize;
+        int tilesUp = (cMapHeight + tileSize - 1) / tileSize;
+
+        RenderTask[] tasks = new RenderTask[tilesAcross * tilesUp];
 
         int index = 0;
 
-        for (int row = 0; row < vertThreads; row++) {
-            for (int col = 0; col < horizThreads; col++) {
-                // set bounds for this thread
-                threads[index] = new RenderTask(col * thrWidth, row * thrHeight, ((col+1) * thrWidth) - 1, ((row + 1) * thrHeight) - 1, cMap);
+        for (int row = 0; row < tilesUp; row++) {
+            for (int col = 0; col < tilesAcross; col++) {
+                // set bounds for this tile
+                tasks[index] = new RenderTask(
+                    col * tileSize, row * tileSize,
+                    Math.min(((col + 1) * tileSize) - 1, cMapWidth - 1), Math.min(((row + 1) * tileSize) - 1, cMapHeight - 1),
+                    cMap, index, tileBins
+                );
                 index++;
             }
         }
 
-        return threads;
+        return tasks;
+    }
+
+    private static int tileSize(Scene scene) {
+        int tileSize = (int) scene.getInitFlag(SceneInitFlag.TILE_SIZE);
+        if (tileSize < 1) {
+            throw new RuntimeException("Render tiles need to be at least 1 pixel across, not " + tileSize);
+        }
+
+        return tileSize;
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A <code>Scene</code> consists of a set of <code>Shape3d</code>s, a set of <code>Light</code>s, and a <code>Camera</code>. 
@@ -15,12 +16,26 @@ public final class Scene {
     private final List<Shape3d> shapes = new ArrayList<>();
     private final List<Light> lights = new ArrayList<>();
     private Camera viewCamera;
+
+    // spatial index over shapes, and the shapes found in the view camera's frustum this frame
+    private final ShapeBVH shapeBVH = new ShapeBVH();
+    private List<Shape3d> visibleShapes = new ArrayList<>();
+    private final OcclusionBuffer occlusionBuffer;
+    // light and material colors multiplied together for the materials drawn this frame
+    private final LightingTerms lightingTerms = new LightingTerms();
+    // screen coordinates of the shape being projected, and the triangles drawn this frame
+    private final ProjectedVertices projectedVertices = new ProjectedVertices();
+    private final DrawList drawList = new DrawList();
+    // goes up every time this scene is rendered, so shapes know when to pick their detail level again
+    private int frame = 0;
     
     private final SceneFlags flags = new SceneFlags();
     private final SceneInitFlags initFlags;
     
     private final ColorMap colorMap;
+    private final ForkJoinPool renderPool;
     private final RenderTask[] renderTasks;
+    private final TileBins tileBins;
     
     private final int pixelWidth;
     private final int pixelHeight;
@@ -39,7 +54,10 @@ public final class Scene {
         this.pixelHeight = (int) (getInitFlag(SceneInitFlag.IMAGE_SIZE_UP) * getInitFlag(SceneInitFlag.RESOLUTION_MULTIPLIER_UP));
         
         this.colorMap = new ColorMap(this, (int) getInitFlag(SceneInitFlag.IMAGE_SIZE_ACROSS), (int) getInitFlag(SceneInitFlag.IMAGE_SIZE_UP));
-        renderTasks = RenderTask.initRenderThreads(this);
+        this.occlusionBuffer = new OcclusionBuffer((int) getInitFlag(SceneInitFlag.OCCLUSION_RESOLUTION_ACROSS), (int) getInitFlag(SceneInitFlag.OCCLUSION_RESOLUTION_UP));
+        this.renderPool = RenderTask.createPool(this);
+        this.tileBins = RenderTask.createTileBins(this);
+        this.renderTasks = RenderTask.createTasks(this, tileBins);
     }
     
     /**
@@ -73,7 +91,10 @@ public final class Scene {
         viewCamera.setParent(this);
         
         this.colorMap = new ColorMap(this, (int) getInitFlag(SceneInitFlag.IMAGE_SIZE_ACROSS), (int) getInitFlag(SceneInitFlag.IMAGE_SIZE_UP));
-        renderTasks = RenderTask.initRenderThreads(this);
+        this.occlusionBuffer = new OcclusionBuffer((int) getInitFlag(SceneInitFlag.OCCLUSION_RESOLUTION_ACROSS), (int) getInitFlag(SceneInitFlag.OCCLUSION_RESOLUTION_UP));
+        this.renderPool = RenderTask.createPool(this);
+        this.tileBins = RenderTask.createTileBins(this);
+        this.renderTasks = RenderTask.createTasks(this, tileBins);
     }
     
     /**
@@ -121,6 +142,9 @@ public final class Scene {
 
     protected List<Shape3d> getShapes() { return this.shapes; }
     protected List<Light> getLights() { return this.lights; }
+    protected LightingTerms getLightingTerms() { return this.lightingTerms; }
+    protected ShapeBVH getShapeBVH() { return this.shapeBVH; }
+    protected int getFrame() { return this.frame; }
 
     /**
      * Adds a specified Light to this Scene.
@@ -139,6 +163,7 @@ public final class Scene {
     public void addShape(Shape3d shape) { 
         shape.setParent(this);
         shapes.add(shape);
+        shapeBVH.invalidate();
     }
 
     /**
@@ -176,29 +201,101 @@ public final class Scene {
         this.backgroundRGB = rgb;
     }
 
-    protected void project(Camera perspectiveCam) {
-        for (Shape3d s : shapes) {
-            s.perspProjection(perspectiveCam);
+    // every shape with the given flag set whose bounds intersect the frustum, in the order they were added to this scene
+    protected List<Shape3d> shapesInFrustum(Frustum frustum, ShapeFlag flag) {
+        return shapesInFrustum(frustum, null, flag);
+    }
+
+    // as above, also leaving out shapes hidden behind the occluders in occlusion, if it is not null
+    protected List<Shape3d> shapesInFrustum(Frustum frustum, OcclusionBuffer occlusion, ShapeFlag flag) {
+        int count = shapeBVH.findInFrustum(frustum, occlusion);
+        int[] indices = shapeBVH.found();
+
+        // triangles at equal depth are drawn in scene order, so the tree's order is not kept
+        Arrays.sort(indices, 0, count);
+
+        List<Shape3d> found = new ArrayList<>(count);
+        for (int f = 0; f < count; f++) {
+            Shape3d s = shapes.get(indices[f]);
+
+            if (s.getShapeFlag(flag) == 1) {
+                found.add(s);
+            }
         }
+
+        return found;
     }
 
-    protected void perspProjectionForPointShadowMap(Camera perspCam) {
-        for (Shape3d s : shapes) {
-            s.perspProjectionForPointShadowMap(perspCam);
+    // shapes that are hidden, entirely outside the camera's view, or behind an occluder are skipped before any of their vertices are projected
+    protected void project(Camera perspectiveCam) {
+        Frustum frustum = Frustum.forView(perspectiveCam);
+        OcclusionBuffer occlusion = drawOccluders(perspectiveCam, frustum);
+
+        this.visibleShapes = shapesInFrustum(frustum, occlusion, ShapeFlag.VISIBLE);
+
+        drawList.clear();
+        boolean backfaceCulling = getFlag(SceneFlag.DO_BACKFACE_CULLING) == 1;
+
+        // every shape is projected into the same ProjectedVertices, so occluders are projected again here
+        for (Shape3d s : visibleShapes) {
+            projectedVertices.perspProjection(s, perspectiveCam);
+            drawList.add(s, projectedVertices, backfaceCulling);
         }
     }
 
-    protected void orthoProjection(Camera orthoCam) {
-        for (Shape3d s : shapes) {
-            s.orthoProjection(orthoCam);
+    // projects the visible occluders and draws them into the occlusion buffer. returns null if there is nothing to test against.
+    // wireframes show what is behind an occluder, so nothing is culled in wireframe mode
+    private OcclusionBuffer drawOccluders(Camera perspectiveCam, Frustum frustum) {
+        if (getFlag(SceneFlag.OCCLUSION_CULLING) == 0 || getFlag(SceneFlag.WIREFRAME) == 1) {
+            return null;
         }
+
+        List<Shape3d> occluders = shapesInFrustum(frustum, ShapeFlag.OCCLUDER);
+        occluders.removeIf(s -> s.getShapeFlag(ShapeFlag.VISIBLE) == 0);
+
+        if (occluders.isEmpty()) {
+            return null;
+        }
+
+        occlusionBuffer.clear(perspectiveCam);
+        boolean backfaceCulling = getFlag(SceneFlag.DO_BACKFACE_CULLING) == 1;
+
+        for (Shape3d s : occluders) {
+            projectedVertices.perspProjection(s, perspectiveCam);
+            occlusionBuffer.drawShape(projectedVertices, backfaceCulling);
+        }
+
+        occlusionBuffer.buildLevels();
+        return occlusionBuffer;
     }
 
+    // shadow maps project the shapes they show into the same space, one shape at a time
+    protected ProjectedVertices getProjectedVertices() { return this.projectedVertices; }
+
     protected void updateShadows() {
+        if (getFlag(SceneFlag.DO_SHADOWS) != 1) {
+            return;
+        }
+
+        // lights work out what their maps show one after another, as the maps project the same shapes. every map that
+        // changed is then drawn at once on the render pool
+        List<ShadowMap> redrawn = new ArrayList<>();
         for (Light l : this.lights) {
-            if (getFlag(SceneFlag.DO_SHADOWS) == 1) {
-                l.updateShadowMap();            
-            }
+            l.updateShadowMap(redrawn);
+        }
+
+        ShadowTask.drawMaps(renderPool, redrawn);
+    }
+
+    private RenderTask.ShadingMode shadingMode() {
+        if (getFlag(SceneFlag.WIREFRAME) == 1) {
+            return RenderTask.ShadingMode.FORWARD;
+        } else if (getFlag(SceneFlag.DEFERRED_SHADING) == 1) {
+            return RenderTask.ShadingMode.DEFERRED;
+        } else if (getFlag(SceneFlag.DEPTH_PREPASS) == 1) {
+            return RenderTask.ShadingMode.DEPTH_PREPASS;
+        } else {
+            return RenderTask.ShadingMode.FORWARD;
         }
     }
 
@@ -211,59 +308,24 @@ public final class Scene {
         // viewCamera.inputTick();
         viewCamera.tick();
 
+        // the tree is refitted around the shapes that moved since the last frame. their vertices are moved by their model transform as they are projected
+        shapeBVH.update(shapes);
+
+        // shapes pick their detail level the first time they are projected in a frame, so only the ones that are drawn or
+        // cast a shadow do, and shadows are cast by the same version of each shape that is drawn
+        frame++;
+
         this.updateShadows();
         this.project(viewCamera);
 
-
-        int triCount = 0;
-        for (Shape3d shape : this.shapes) {
-            if (shape.getShapeFlag(ShapeFlag.VISIBLE) == 1) {
-                for (Triangle t : shape.getTriangles()) {                
-                    t.setShown(false);
-                    if (
-                        t.overlapsWithRect(0, 0, (int) this.pixelWidth, (int) this.pixelHeight) &&
-                        t.vrtx1().depth() > 0 &&
-                        t.vrtx2().depth() > 0 &&
-                        t.vrtx3().depth() > 0
-                    ) {
-                        if (t.isFacingViewer() || !(getFlag(SceneFlag.DO_BACKFACE_CULLING) == 1)) {
-                            t.setShown(true);
-                            triCount++;
-                        }
-                    }
-                }
-            }
-        }
-        
-        Triangle[] allTriangles = new Triangle[triCount];
-
-        int current = 0;
-        for (Shape3d shape : this.shapes) {
-            if (shape.getShapeFlag(ShapeFlag.VISIBLE) == 1) {
-                for (Triangle t : shape.getTriangles()) {
-                    if (t.isShown()) {
-                        allTriangles[current] = t;
-                        current++;
-                    }
-                }
-            }
-        }
+        // every material drawn this frame belongs to a visible shape
+        lightingTerms.update(lights, visibleShapes);
 
         this.colorMap.reset(backgroundRGB);
         this.colorMap.clearDepthBuffer();
 
-        RenderTask.allAssignTris(renderTasks, allTriangles);
-        RenderTask.allStartRendering(renderTasks);
-        
-        boolean rendering = true;
-        while (rendering) {
-            rendering = false;
-            for (RenderTask thr : renderTasks) {
-                if (thr.isRendering()) {
-                    rendering = true;
-                }
-            }
-        }
+        // blocks until every tile has been rendered
+        RenderTask.renderFrame(renderPool, colorMap, renderTasks, tileBins, drawList, shadingMode());
         
         if (getFlag(SceneFlag.DISPLAY_LIGHTS) == 1) {
             for (Light l : this.lights) {
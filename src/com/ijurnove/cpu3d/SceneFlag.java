@@ -46,6 +46,62 @@ public enum SceneFlag {
      */
     DISPLAY_LIGHTS,
 
+    /**
+     * Enables or disables the depth pre-pass. When enabled, every tile is first rendered to the depth buffer only, and lighting is then calculated once for
+     * each pixel, using only the closest surface. This avoids lighting pixels that are later drawn over, which helps most in scenes with lots of overlapping
+     * geometry and expensive lighting. A value of 0 turns it off, and 1 turns it on. Has no effect in wireframe mode.
+     * <br>
+     * Default value of 0. 
+     */
+    DEPTH_PREPASS,
+
+    /**
+     * Enables or disables deferred shading. When enabled, triangles are drawn into a buffer holding the position, normal, texture color, and material of the
+     * closest surface at each pixel, and lighting is then calculated for the whole screen in a separate pass. The cost of lighting then depends on the number
+     * of pixels and lights, not on how much geometry is drawn. A value of 0 turns it off, and 1 turns it on. Takes priority over 
+     * <code>SceneFlag.DEPTH_PREPASS</code>, and has no effect in wireframe mode.
+     * <br>
+     * Default value of 0. 
+     */
+    DEFERRED_SHADING,
+
+    /**
+     * Enables or disables vectorized shadow map rasterization. When enabled, shadow maps are drawn a full vector of pixels at a time using the
+     * <code>jdk.incubator.vector</code> module, which makes redrawing them several times faster on processors with wide vector units. Shadows look
+     * the same either way. This only has an effect when the sources in <code>src-vector</code> are compiled and the module is present, which requires
+     * running with <code>--add-modules jdk.incubator.vector</code>. Otherwise, shadow maps are always drawn one pixel at a time. A value of 0 turns it
+     * off, and 1 turns it on.
+     * <br>
+     * Default value of 0. 
+     */
+    VECTOR_RASTERIZATION,
+
+    /**
+     * Enables or disables occlusion culling. When enabled, <code>Shape3d</code>s with <code>ShapeFlag.OCCLUDER</code> set are drawn into a small depth
+     * buffer first, and any <code>Shape3d</code> whose bounds are entirely hidden behind them is skipped. Has no effect unless some <code>Shape3d</code>s
+     * are occluders, or in wireframe mode. The size of the buffer is set by <code>SceneInitFlag.OCCLUSION_RESOLUTION_ACROSS</code> and
+     * <code>SceneInitFlag.OCCLUSION_RESOLUTION_UP</code>. A value of 0 turns it off, and 1 turns it on.
+     * <br>
+     * Default value of 1. 
+     */
+    OCCLUSION_CULLING,
+
+    /**
+     * Enables or disables levels of detail. When enabled, a <code>Shape3d</code> with detail levels is drawn using the simplest one allowed at the size
+     * it covers on the screen. Refer to <code>Shape3d.addDetailLevel()</code>. A value of 0 always draws the full <code>Shape3d</code>, and 1 turns it on.
+     * <br>
+     * Default value of 1. 
+     */
+    LEVEL_OF_DETAIL,
+
+    /**
+     * Controls how far from the <code>Camera</code> a <code>DirectionalLight</code> casts shadows. The shadow maps of each <code>DirectionalLight</code>
+     * are spread over this distance, so lower values result in sharper shadows. A value of 0 casts shadows as far as the scene reaches.
+     * <br>
+     * Default value of 0. 
+     */
+    SHADOW_DISTANCE,
+
     /**
      * Controls the gamma correction value.
      * <br>
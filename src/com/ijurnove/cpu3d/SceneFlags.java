@@ -22,7 +22,13 @@ public class SceneFlags {
 
         flags.put(SceneFlag.WIREFRAME, 0D);
         flags.put(SceneFlag.DISPLAY_LIGHTS, 0D);
+        flags.put(SceneFlag.DEPTH_PREPASS, 0D);
+        flags.put(SceneFlag.DEFERRED_SHADING, 0D);
+        flags.put(SceneFlag.VECTOR_RASTERIZATION, 0D);
+        flags.put(SceneFlag.OCCLUSION_CULLING, 1D);
+        flags.put(SceneFlag.LEVEL_OF_DETAIL, 1D);
 
+        flags.put(SceneFlag.SHADOW_DISTANCE, 0D);
         flags.put(SceneFlag.GAMMA, 2.2);
     }
 
@@ -50,18 +50,61 @@ public enum SceneInitFlag {
     SHADOW_RESOLUTION_UP,
 
     /**
-     * When a <code>Scene</code> is being rendered, the screen is split into segments vertically and horizontally. Each segment is rendered by a different thread.
-     * <code>THREADS_ACROSS</code> controls the number of horizontal divisions.
+     * Controls how many shadow maps each <code>DirectionalLight</code> splits its shadows into. Each map covers a slice of the view, and the slices
+     * closest to the <code>Camera</code> are the smallest, so nearby shadows are the sharpest. Each map is <code>SHADOW_RESOLUTION_ACROSS</code> by
+     * <code>SHADOW_RESOLUTION_UP</code>. Higher values will result in sharper shadows, but longer rendering times. Must be at least 1.
      * <br>
-     * Default value is 3.
+     * Default value is 3. 
      */
+    SHADOW_CASCADES,
+
+    /**
+     * Previously controlled the number of horizontal screen divisions, each rendered by its own thread.
+     * <br>
+     * No longer used. The screen is split into tiles of <code>TILE_SIZE</code> instead, which are rendered by <code>RENDER_THREADS</code> threads.
+     * @deprecated use <code>TILE_SIZE</code> and <code>RENDER_THREADS</code>
+     */
+    @Deprecated
     THREADS_ACROSS,
 
     /**
-     * When a <code>Scene</code> is being rendered, the screen is split into segments vertically and horizontally. Each segment is rendered by a different thread.
-     * <code>THREADS_UP</code> controls the number of vertical divisions.
+     * Previously controlled the number of vertical screen divisions, each rendered by its own thread.
+     * <br>
+     * No longer used. The screen is split into tiles of <code>TILE_SIZE</code> instead, which are rendered by <code>RENDER_THREADS</code> threads.
+     * @deprecated use <code>TILE_SIZE</code> and <code>RENDER_THREADS</code>
+     */
+    @Deprecated
+    THREADS_UP,
+
+    /**
+     * When a <code>Scene</code> is being rendered, the screen is split into square tiles. Tiles are shared out between the rendering threads as they
+     * become free, so smaller tiles balance work better when geometry only covers part of the screen. <code>TILE_SIZE</code> controls the width and height
+     * of each tile, in pixels. Must be at least 1.
+     * <br>
+     * Default value is 64.
+     */
+    TILE_SIZE,
+
+    /**
+     * Sets the number of threads used to render a <code>Scene</code>. Must be at least 1.
+     * <br>
+     * Default value is the number of available processors.
+     */
+    RENDER_THREADS,
+
+    /**
+     * Sets the width of the depth buffer occluders are drawn into when <code>SceneFlag.OCCLUSION_CULLING</code> is on. Larger buffers cull more
+     * accurately, but take longer to draw.
+     * <br>
+     * Default value is 256.
+     */
+    OCCLUSION_RESOLUTION_ACROSS,
+
+    /**
+     * Sets the height of the depth buffer occluders are drawn into when <code>SceneFlag.OCCLUSION_CULLING</code> is on. Larger buffers cull more
+     * accurately, but take longer to draw.
      * <br>
-     * Default value is 3.
+     * Default value is 144.
      */
-    THREADS_UP
+    OCCLUSION_RESOLUTION_UP
 }
\ No newline at end of file
@@ -17,6 +17,8 @@ public class SceneInitFlags {
     /**
      * Constructs a new <code>SceneInitFlags</code> with the default values for each flag.
      */
+    // the deprecated flags keep their old defaults, so reading them still works
+    @SuppressWarnings("deprecation")
     public SceneInitFlags() {
         Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
 
@@ -28,10 +30,16 @@ public class SceneInitFlags {
 
         flags.put(SceneInitFlag.SHADOW_RESOLUTION_ACROSS, 2048D);
         flags.put(SceneInitFlag.SHADOW_RESOLUTION_UP, 2048D);
+        flags.put(SceneInitFlag.SHADOW_CASCADES, 3D);
 
         flags.put(SceneInitFlag.THREADS_ACROSS, 3D);
         flags.put(SceneInitFlag.THREADS_UP, 3D);
 
+        flags.put(SceneInitFlag.TILE_SIZE, 64D);
+        flags.put(SceneInitFlag.RENDER_THREADS, (double) Runtime.getRuntime().availableProcessors());
+
+        flags.put(SceneInitFlag.OCCLUSION_RESOLUTION_ACROSS, 256D);
+        flags.put(SceneInitFlag.OCCLUSION_RESOLUTION_UP, 144D);
     }
 
     protected void lock() {
@@ -0,0 +1,175 @@
+package com.ijurnove.cpu3d;
+import java.util.Arrays;
+import java.util.List;
+
+// a DirectionalLight's shadow, split into orthographic maps that each cover one slice of the view camera's frustum.
+// the slices get longer the farther they are from the camera, so the shadows close to it get the most texels. each map
+// keeps the same size however the camera turns, and only moves across the light in whole texels, so shadow edges
+// don't shimmer as the camera moves
+class ShadowCascades {
+    // how the split distances are spread out. 0 spreads them evenly, 1 spreads them by the ratio between them
+    private static final double LOG_SPLIT_WEIGHT = 0.5;
+    // the first split is worked out from a near distance this fraction of the farthest one
+    private static final double NEAR_FRACTION = 0.001;
+    // the farthest split is rounded up to a power of this, so the slices don't change size every time the camera moves
+    private static final double DISTANCE_STEP = Math.pow(2, 0.25);
+    // how many texels farther than the map a point has to be before it is in shadow
+    private static final double BIAS_TEXELS = 2;
+
+    private final ShadowMap[] maps;
+    private final Matrix4 view = new Matrix4();
+    // the farthest view depth each map covers. points past the last one are never shadowed
+    private final double[] splits;
+    private final int width;
+    private final int height;
+
+    protected ShadowCascades(Camera camera, int count, int width, int height) {
+        if (count < 1) {
+            throw new RuntimeException("A DirectionalLight needs at least 1 shadow cascade, not " + count);
+        }
+
+        this.maps = new ShadowMap[count];
+        this.splits = new double[count];
+        this.width = width;
+        this.height = height;
+
+        for (int i = 0; i < count; i++) {
+            maps[i] = new ShadowMap(ProjectionType.ORTHOGRAPHIC, width, height, camera);
+        }
+    }
+
+    // fits every map to its slice of the view camera's frustum, adding the maps that need redrawing to redrawn. direction
+    // points towards the light
+    protected void update(Scene scene, Vector3d direction, List<ShadowMap> redrawn) {
+        Camera viewCam = scene.getViewCamera();
+        Matrix4 camView = viewCam.getViewMatrix();
+        ShapeBVH bvh = scene.getShapeBVH();
+
+        // the farthest the scene reaches in front of the camera
+        double reach = 0;
+        for (int i = 0; i < 8; i++) {
+            reach = Math.max(reach, -1 * camView.transformRow(2, boxCorner(bvh, i, 0), boxCorner(bvh, i, 1), boxCorner(bvh, i, 2)));
+        }
+
+        double maxDistance = scene.getFlag(SceneFlag.SHADOW_DISTANCE);
+        if (maxDistance > 0) {
+            reach = Math.min(reach, maxDistance);
+        }
+
+        if (reach <= 0) {
+            // nothing in front of the camera to shadow
+            Arrays.fill(splits, 0);
+            return;
+        }
+
+        double far = Math.pow(DISTANCE_STEP, Math.ceil(Math.log(reach) / Math.log(DISTANCE_STEP)));
+        double near = far * NEAR_FRACTION;
+
+        for (int i = 0; i < splits.length; i++) {
+            double along = (double) (i + 1) / splits.length;
+            double logSplit = near * Math.pow(far / near, along);
+            double evenSplit = near + ((far - near) * along);
+
+            splits[i] = (LOG_SPLIT_WEIGHT * logSplit) + ((1 - LOG_SPLIT_WEIGHT) * evenSplit);
+        }
+        splits[splits.length - 1] = far;
+
+        // the light's axes, in world space. forward points towards the light, the same way as the light's direction
+        Vector3d forward = direction.copy();
+        forward.normalize();
+
+        Vector3d right = forward.cross(Vector3d.UP);
+        if (right.magnitude() < 1e-9) {
+            // looking straight up or down
+            right = forward.cross(new Vector3d(1, 0, 0));
+        }
+        right.normalize();
+
+        Vector3d up = forward.cross(right);
+
+        // the depth every map covers runs along the light through the whole scene, so casters outside the view still shade it
+        double nearestAlong = Double.POSITIVE_INFINITY;
+        double farthestAlong = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < 8; i++) {
+            double along = (forward.x() * boxCorner(bvh, i, 0)) + (forward.y() * boxCorner(bvh, i, 1)) + (forward.z() * boxCorner(bvh, i, 2));
+            nearestAlong = Math.min(nearestAlong, along);
+            farthestAlong = Math.max(farthestAlong, along);
+        }
+
+        double[] slopes = Frustum.viewSlopes(viewCam);
+
+        for (int c = 0; c < maps.length; c++) {
+            double start = c == 0 ? 0 : splits[c - 1];
+            double end = splits[c];
+
+            // a sphere around the slice's corners, centered on their middle. it is found in view space, so its size doesn't
+            // change as the camera turns
+            double centerX = ((slopes[0] + slopes[1]) / 2) * ((start + end) / 2);
+            double centerY = ((slopes[2] + slopes[3]) / 2) * ((start + end) / 2);
+            double centerZ = -1 * ((start + end) / 2);
+
+            double radius = 0;
+            for (int i = 0; i < 8; i++) {
+                double depth = (i & 4) == 0 ? start : end;
+                double x = slopes[i & 1] * depth - centerX;
+                double y = slopes[2 + ((i >> 1) & 1)] * depth - centerY;
+                double z = (-1 * depth) - centerZ;
+
+                radius = Math.max(radius, Math.sqrt((x * x) + (y * y) + (z * z)));
+            }
+
+            // the view matrix only rotates and moves, so it is undone by moving back and rotating by its transpose
+            double viewX = centerX - camView.getValue(3, 0);
+            double viewY = centerY - camView.getValue(3, 1);
+            double viewZ = centerZ - camView.getValue(3, 2);
+            double[] center = new double[3];
+            for (int axis = 0; axis < 3; axis++) {
+                center[axis] = (camView.getValue(axis, 0) * viewX) + (camView.getValue(axis, 1) * viewY) + (camView.getValue(axis, 2) * viewZ);
+            }
+
+            // the map is a texel wider than the sphere on every side, so snapping it to texels never uncovers the sphere
+            double texelAcross = (2 * radius) / (width - 2);
+            double texelUp = (2 * radius) / (height - 2);
+
+            double across = (right.x() * center[0]) + (right.y() * center[1]) + (right.z() * center[2]);
+            double upward = (up.x() * center[0]) + (up.y() * center[1]) + (up.z() * center[2]);
+            across = Math.floor(across / texelAcross) * texelAcross;
+            upward = Math.floor(upward / texelUp) * texelUp;
+
+            double mapAcross = width * texelAcross;
+            double mapUp = height * texelUp;
+            double top = farthestAlong + texelAcross;
+            double depthRange = (top - nearestAlong) + texelAcross;
+
+            // across and up the map go to between -0.5 and 0.5, and depth goes from 0 at the light's side of the scene to 1
+            view.setValues(new Matrix4(new double[][] {
+                {right.x() / mapAcross, right.y() / mapAcross, right.z() / mapAcross, -1 * across / mapAcross},
+                {up.x() / mapUp, up.y() / mapUp, up.z() / mapUp, -1 * upward / mapUp},
+                {-1 * forward.x() / depthRange, -1 * forward.y() / depthRange, -1 * forward.z() / depthRange, top / depthRange},
+                {0, 0, 0, 1}
+            }));
+
+            if (maps[c].prepareDepthMap(scene, view, (BIAS_TEXELS * Math.max(texelAcross, texelUp)) / depthRange)) {
+                redrawn.add(maps[c]);
+            }
+        }
+    }
+
+    // shadow value of a point stored the way lighting stores it, with X and Y swapped, from the map covering its slice
+    protected double shadowValue(Scene scene, Point3d point) {
+        double depth = -1 * scene.getViewCamera().getViewMatrix().transformRow(2, point.yReal(), point.xReal(), point.zReal());
+
+        for (int c = 0; c < maps.length; c++) {
+            if (depth <= splits[c]) {
+                return maps[c].shadowValueOrtho(point.xReal(), point.yReal(), point.zReal());
+            }
+        }
+
+        return 1;
+    }
+
+    // one of the 8 corners of the scene's bounding box
+    private static double boxCorner(ShapeBVH bvh, int corner, int axis) {
+        return (corner & (1 << axis)) == 0 ? bvh.minValue(axis) : bvh.maxValue(axis);
+    }
+}
@@ -1,6 +1,8 @@
 package com.ijurnove.cpu3d;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
+import java.util.Arrays;
+import java.util.List;
 
 class ShadowMap {
     private final Camera camera;
@@ -9,211 +11,388 @@ class ShadowMap {
     private final int height;
     private final ProjectionType projType;
 
+    // takes a point, stored the way lighting stores it, straight to the shadow map. rows 0 and 1 divided by row 3 give
+    // the pixel the point lands on. rebuilt only when the camera's matrices are
+    private final Matrix4 lookupMatrix = new Matrix4();
+    // the view an orthographic map was last drawn through, and how far past it a point has to be to be in shadow
+    private final Matrix4 orthoView = new Matrix4();
+    private double depthBias = 0.005;
+
+    // what the map was last drawn from: each caster, the version of its bounds and the Mesh of the detail level
+    // drawn. the map is only redrawn once its camera moves or one of these changes
+    private Shape3d[] drawnCasters;
+    private int[] drawnVersions;
+    private Mesh[] drawnLevels;
+
+    // the map's triangles, copied out of the casters as they are projected, since the next map projects the same shapes
+    // again. each one is the x, y and depth of its three vertices
+    private static final int TRIANGLE_STRIDE = 9;
+    private double[] triangleCoords = new double[0];
+    private int triangleCount;
+
+    // the map is drawn a tile at a time, so the tiles of every map can be drawn at once
+    private final ShadowTask[] tiles;
+
+    private boolean vectorRaster;
+
     protected ShadowMap(ProjectionType projType, int width, int height, Camera camera) {
         this.camera = camera;
         this.width = width;
         this.height = height;
         this.projType = projType;
         this.depthMap = new double[height][width];
+        this.tiles = ShadowTask.createTasks(this, width, height);
 
-        this.clear();
-    }
-
-    protected Camera getCamera() { return this.camera; }
-
-    private void clear() {
         for (double[] row : depthMap) {
-            for (int col = 0; col < row.length; col++) {
-                row[col] = 500;
-            }
+            Arrays.fill(row, 500);
         }
     }
 
-    protected void updateDepthMap(Scene scene) {
-        this.clear();
+    protected Camera getCamera() { return this.camera; }
+    protected ShadowTask[] getTiles() { return this.tiles; }
+
+    // works out what a perspective map shows, and returns true if it has changed since the map was last drawn. the map
+    // isn't drawn until each of its tiles is
+    protected boolean prepareDepthMap(Scene scene) {
+        this.vectorRaster = Util.useVectorApi(scene);
 
-        switch (projType) {
-            case ORTHOGRAPHIC -> updateDepthMapOrtho(scene);
-            case PERSPECTIVE -> updateDepthMapPersp(scene);
+        return switch (projType) {
+            case PERSPECTIVE -> prepareDepthMapPersp(scene);
+            case ORTHOGRAPHIC -> throw new RuntimeException("Orthographic shadow maps are drawn through a view matrix from their light");
             default -> throw new RuntimeException("No depth map functionality for current ProjectionType " + projType);
-        }
+        };
     }
 
     protected double shadowValue(Point3d p) {
         return switch (projType) {
-            case ORTHOGRAPHIC -> shadowValueOrtho(p);
-            case PERSPECTIVE -> shadowValuePersp(p);
+            case ORTHOGRAPHIC -> shadowValueOrtho(p.xReal(), p.yReal(), p.zReal());
+            case PERSPECTIVE -> shadowValuePersp(p.xReal(), p.yReal(), p.zReal());
             default -> throw new RuntimeException("ProjectionType " + projType + " is not in ShadowMap.shadowValue");
         };
     }
 
-    private void updateDepthMapPersp(Scene scene) {
-        scene.perspProjectionForPointShadowMap(camera);
-
-        int triCount = 0;
-        for (Shape3d shape : scene.getShapes()) {
-            if (shape.getShapeFlag(ShapeFlag.CAST_SHADOW) == 1) {
-                for (Triangle t : shape.getTriangles()) {                
-                    t.setShown(false);
-                    if  (
-                        (t.vrtx1().xRend() < width && t.vrtx1().xRend() >= 0 && t.vrtx1().yRend() < height && t.vrtx1().yRend() >= 0) ||
-                        (t.vrtx2().xRend() < width && t.vrtx2().xRend() >= 0 && t.vrtx2().yRend() < height && t.vrtx2().yRend() >= 0) ||
-                        (t.vrtx3().xRend() < width && t.vrtx3().xRend() >= 0 && t.vrtx3().yRend() < height && t.vrtx3().yRend() >= 0)
-                    ) {
-                        t.setShown(true);
-                        triCount++;
-                    }
-                }
-            } else {
-                for (Triangle t : shape.getTriangles()) {
-                    t.setShown(false);
-                }
-            }
+    private boolean prepareDepthMapPersp(Scene scene) {
+        // the light's matrices only change when it moves
+        boolean moved = camera.updateShadowMatrices();
+        if (moved) {
+            updateLookupMatrixPersp(camera.getLookAtMatrix());
         }
-        
-        Triangle[] visibleTris = new Triangle[triCount];
 
-        int current = 0;
-        for (Shape3d shape : scene.getShapes()) {
-            for (Triangle t : shape.getTriangles()) {
-                if (t.isShown()) {
-                    visibleTris[current] = t;
-                    current++;
+        // only shadow casters that can land on this face of the map are projected
+        List<Shape3d> casters = scene.shapesInFrustum(
+            Frustum.forPointShadowMap(camera, camera.getLookAtMatrix(), width, height), ShapeFlag.CAST_SHADOW
+        );
+
+        // shapes that changed somewhere this face can't see don't change it
+        if (!castersChanged(casters) && !moved) {
+            return false;
+        }
+
+        this.triangleCount = 0;
+
+        ProjectedVertices projected = scene.getProjectedVertices();
+
+        for (Shape3d shape : casters) {
+            projected.perspProjectionForPointShadowMap(shape, camera);
+            int[] indices = projected.getMesh().getIndices();
+
+            for (int i = 0; i < indices.length; i += 3) {
+                int v1 = indices[i];
+                int v2 = indices[i + 1];
+                int v3 = indices[i + 2];
+
+                if (onMap(projected, v1) || onMap(projected, v2) || onMap(projected, v3)) {
+                    addTriangle(projected, v1, v2, v3);
                 }
             }
         }
 
-        for (Triangle t : visibleTris) {
-            if (t.getParent().getShapeFlag(ShapeFlag.CAST_SHADOW) == 1) {
-                drawTriangleDepth(t, 0, 0, width-1, height-1);
+        return true;
+    }
+
+    // works out what an orthographic map shows through a view matrix worked out by its light, which takes world positions
+    // to between -0.5 and 0.5 across and up the map, and to a depth above 0. returns true if the view or the casters have
+    // changed since the map was last drawn. depthBias is how much farther than the map a point has to be before it is in shadow
+    protected boolean prepareDepthMap(Scene scene, Matrix4 view, double depthBias) {
+        if (projType != ProjectionType.ORTHOGRAPHIC) {
+            throw new RuntimeException("Only orthographic shadow maps are drawn through a given view matrix, not " + projType);
+        }
+
+        this.vectorRaster = Util.useVectorApi(scene);
+        this.depthBias = depthBias;
+
+        boolean moved = !orthoView.valuesEqual(view);
+        if (moved) {
+            orthoView.setValues(view);
+            updateLookupMatrixOrtho(view);
+        }
+
+        // only casters reaching into the map across and up are drawn
+        List<Shape3d> casters = scene.shapesInFrustum(Frustum.forOrthoShadowMap(view), ShapeFlag.CAST_SHADOW);
+
+        if (!castersChanged(casters) && !moved) {
+            return false;
+        }
+
+        this.triangleCount = 0;
+
+        ProjectedVertices projected = scene.getProjectedVertices();
+
+        for (Shape3d shape : casters) {
+            projected.orthoProjection(shape, camera, view);
+            int[] indices = projected.getMesh().getIndices();
+
+            for (int i = 0; i < indices.length; i += 3) {
+                addTriangle(projected, indices[i], indices[i + 1], indices[i + 2]);
             }
         }
+
+        return true;
     }
 
-    private void updateDepthMapOrtho(Scene scene) {
-        double maxCoord = 0;
+    private boolean onMap(ProjectedVertices projected, int vertex) {
+        double x = projected.xRend(vertex);
+        double y = projected.yRend(vertex);
 
-        for (Shape3d s : scene.getShapes()) {
-            for (Triangle t : s.getTriangles()) {
-                for (Point3d p : t.getVertices()) {
-                    if (Math.abs(p.xReal()) > maxCoord) {
-                        maxCoord = Math.abs(p.xReal());
-                    }
-                    
-                    if (Math.abs(p.yReal()) > maxCoord) {
-                        maxCoord = Math.abs(p.yReal());
-                    }
+        return x < width && x >= 0 && y < height && y >= 0;
+    }
 
-                    if (Math.abs(p.zReal()) > maxCoord) {
-                        maxCoord = Math.abs(p.zReal());
-                    }
-                }
-            }
+    private void addTriangle(ProjectedVertices projected, int v1, int v2, int v3) {
+        int t = triangleCount * TRIANGLE_STRIDE;
+
+        if (t + TRIANGLE_STRIDE > triangleCoords.length) {
+            triangleCoords = Arrays.copyOf(triangleCoords, Math.max(t + TRIANGLE_STRIDE, triangleCoords.length * 2));
         }
-        
-        maxCoord *= 4;
 
-        camera.updateOrthoMatrix(maxCoord*-1, maxCoord, maxCoord*-1, maxCoord, maxCoord*-1, maxCoord);
+        copyVertex(projected, v1, t);
+        copyVertex(projected, v2, t + 3);
+        copyVertex(projected, v3, t + 6);
+
+        triangleCount++;
+    }
 
-        scene.orthoProjection(camera);
+    private void copyVertex(ProjectedVertices projected, int vertex, int c) {
+        triangleCoords[c] = projected.xRend(vertex);
+        triangleCoords[c + 1] = projected.yRend(vertex);
+        triangleCoords[c + 2] = projected.depth(vertex);
+    }
 
-        for (Shape3d shape : scene.getShapes()) {
-            if (shape.getShapeFlag(ShapeFlag.CAST_SHADOW) == 1) {
-                for (Triangle tri : shape.getTriangles()) {
-                    drawTriangleDepth(tri, 0, 0, width, height);
-                }
+    // clears the pixels from minX, minY to maxX, maxY and draws every triangle over them. tiles that don't overlap can be
+    // drawn by different threads at once
+    protected void drawTile(int minX, int minY, int maxX, int maxY) {
+        for (int row = minY; row <= maxY; row++) {
+            Arrays.fill(depthMap[row], minX, maxX + 1, 500);
+        }
+
+        double[] bary = new double[3];
+
+        for (int t = 0; t < triangleCount; t++) {
+            drawTriangleDepth(t * TRIANGLE_STRIDE, minX, minY, maxX, maxY, bary);
+        }
+    }
+
+    // true if any caster has been added, removed, moved, flipped or switched detail level since the map was last drawn.
+    // the casters are remembered for next time either way
+    private boolean castersChanged(List<Shape3d> casters) {
+        boolean changed = drawnCasters == null || drawnCasters.length != casters.size();
+
+        if (changed) {
+            drawnCasters = new Shape3d[casters.size()];
+            drawnVersions = new int[casters.size()];
+            drawnLevels = new Mesh[casters.size()];
+        }
+
+        for (int i = 0; i < drawnCasters.length; i++) {
+            Shape3d shape = casters.get(i);
+            shape.getBounds();
+
+            if (
+                drawnCasters[i] != shape ||
+                drawnVersions[i] != shape.boundsVersion() ||
+                drawnLevels[i] != shape.drawnMesh()
+            ) {
+                changed = true;
+
+                drawnCasters[i] = shape;
+                drawnVersions[i] = shape.boundsVersion();
+                drawnLevels[i] = shape.drawnMesh();
             }
         }
+
+        return changed;
+    }
+
+    // folds the steps of VertexBuffer.perspProjectionForPointShadowMap() after the view matrix into one matrix. the
+    // view matrix is applied with X and Y swapped both ways, which is the same as applying it to the point as it is
+    // stored for lighting
+    private void updateLookupMatrixPersp(Matrix4 view) {
+        double tanFov = Math.tan(Math.toRadians(camera.getFov()) / 2);
+
+        for (int col = 0; col < 4; col++) {
+            double viewX = view.getValue(col, 0);
+            double viewY = view.getValue(col, 1);
+            double depth = -1 * view.getValue(col, 2);
+
+            lookupMatrix.setValue(col, 0, ((viewY / tanFov) * width) + (depth * (width / 2)));
+            lookupMatrix.setValue(col, 1, ((viewX / tanFov) * height) + (depth * (height / 2)));
+            lookupMatrix.setValue(col, 2, depth);
+            lookupMatrix.setValue(col, 3, depth);
+        }
     }
 
-    protected double shadowValuePersp(Point3d p) {
-        Point3d point = p.copy();
-        Matrix m = point.getMatrix();
-        double swapX = m.getValue(0, 0);
-        m.setValue(0, 0, m.getValue(0, 1));
-        m.setValue(0, 1, swapX);
-
-        point.perspProjectionForPointShadowMap(camera);
-        
-        if (
-            point.xRend() < width && 
-            point.xRend() >= 0 && 
-            point.yRend() < height && 
-            point.yRend() >= 0 &&
-            point.depth() > 0
-        ) {
-            double depth = point.depth();
-            
-            double[] mapCoords = new double[] {
-                point.xRend() / width,
-                point.yRend() / height
-            };
-            
-            int shadowX = (int) Util.clamp(mapCoords[0] * width, 0, width-1);
-            int shadowY = (int) Util.clamp(mapCoords[1] * height, 0, height-1);
-
-            return (depth - 0.05 > depthMap[shadowY][shadowX] ? 0 : 1);            
+    // shadow value of a point stored the way lighting stores it, with X and Y swapped. -1 if the point isn't on the map
+    protected double shadowValuePersp(double x, double y, double z) {
+        double depth = lookupMatrix.transformRow(2, x, y, z);
+
+        if (!(depth > 0)) {
+            return -1;
+        }
+
+        double mapX = lookupMatrix.transformRow(0, x, y, z) / depth;
+        double mapY = lookupMatrix.transformRow(1, x, y, z) / depth;
+
+        if (mapX < width && mapX >= 0 && mapY < height && mapY >= 0) {
+            return (depth - 0.05 > depthMap[(int) mapY][(int) mapX] ? 0 : 1);
         }
 
         return -1;
     }
 
-    protected double shadowValueOrtho(Point3d p) {
-        Point3d point = p.copy();
-        Matrix m = point.getMatrix();
-        double swapX = m.getValue(0, 0);
-        m.setValue(0, 0, m.getValue(0, 1));
-        m.setValue(0, 1, swapX);
+    // folds the steps of VertexBuffer.orthoProjection() after the view matrix into one matrix. the view matrix is
+    // applied to points with X and Y swapped, so its first two columns trade places
+    private void updateLookupMatrixOrtho(Matrix4 view) {
+        for (int col = 0; col < 4; col++) {
+            int viewCol = col == 0 ? 1 : (col == 1 ? 0 : col);
+            double lightSpaceWidth = view.getValue(viewCol, 3);
+
+            lookupMatrix.setValue(col, 0, (view.getValue(viewCol, 0) * width) + (lightSpaceWidth * (width / 2)));
+            lookupMatrix.setValue(col, 1, (view.getValue(viewCol, 1) * height) + (lightSpaceWidth * (height / 2)));
+            lookupMatrix.setValue(col, 2, view.getValue(viewCol, 2));
+            lookupMatrix.setValue(col, 3, lightSpaceWidth);
+        }
+    }
 
-        point.orthoProjection(camera);
-        
-        double depth = point.depth();
+    // shadow value of a point stored the way lighting stores it, with X and Y swapped
+    protected double shadowValueOrtho(double x, double y, double z) {
+        double lightSpaceWidth = lookupMatrix.transformRow(3, x, y, z);
+        double depth = lookupMatrix.transformRow(2, x, y, z) / lightSpaceWidth;
 
-        double lightSpaceWidth = point.getRenderCoords().getValue(0, 3);
-        
-        double[] mapCoords = new double[] {
-            point.xRend() / width / lightSpaceWidth,
-            point.yRend() / height / lightSpaceWidth
-        };
-        depth = depth / lightSpaceWidth;
-                
-        int shadowX = (int) Util.clamp(mapCoords[0] * width, 0, width-1);
-        int shadowY = (int) Util.clamp(mapCoords[1] * height, 0, height-1);
+        int shadowX = (int) Util.clamp(lookupMatrix.transformRow(0, x, y, z) / lightSpaceWidth, 0, width-1);
+        int shadowY = (int) Util.clamp(lookupMatrix.transformRow(1, x, y, z) / lightSpaceWidth, 0, height-1);
 
-        return (depth - 0.005 > depthMap[shadowY][shadowX] ? 0 : 1);
+        return (depth - depthBias > depthMap[shadowY][shadowX] ? 0 : 1);
     }
 
-    protected void drawTriangleDepth(Triangle tri, int minX, int minY, int maxX, int maxY) {
-        Point3d v1 = tri.vrtx1();
-        Point3d v2 = tri.vrtx2();
-        Point3d v3 = tri.vrtx3();
+    // draws the triangle starting at t in triangleCoords, clipped to minX, minY to maxX, maxY. the barycentric weights are
+    // worked out the same way as DrawList.barycentricCoords()
+    private void drawTriangleDepth(int t, int minX, int minY, int maxX, int maxY, double[] bary) {
+        double x1 = triangleCoords[t], y1 = triangleCoords[t + 1], z1 = triangleCoords[t + 2];
+        double x2 = triangleCoords[t + 3], y2 = triangleCoords[t + 4], z2 = triangleCoords[t + 5];
+        double x3 = triangleCoords[t + 6], y3 = triangleCoords[t + 7], z3 = triangleCoords[t + 8];
 
-        int minBoundX = (int) min(v1.xRend(), min(v2.xRend(), v3.xRend()));
-        int minBoundY = (int) min(v1.yRend(), min(v2.yRend(), v3.yRend()));
-        
-        int maxBoundX = (int) max(v1.xRend(), max(v2.xRend(), v3.xRend()));
-        int maxBoundY = (int) max(v1.yRend(), max(v2.yRend(), v3.yRend()));
+        int minBoundX = max((int) min(x1, min(x2, x3)), minX);
+        int minBoundY = max((int) min(y1, min(y2, y3)), minY);
 
-        minBoundX = max(minBoundX, minX);
-        minBoundY = max(minBoundY, minY);
+        int maxBoundX = min((int) max(x1, max(x2, x3)), maxX);
+        int maxBoundY = min((int) max(y1, max(y2, y3)), maxY);
 
-        maxBoundX = min(maxBoundX, maxX);
-        maxBoundY = min(maxBoundY, maxY);
+        if (minBoundX > maxBoundX || minBoundY > maxBoundY) {
+            return;
+        }
+
+        double v2yMinusV3y = y2 - y3;
+        double v3xMinusV2x = x3 - x2;
+        double v3yMinusV1y = y3 - y1;
+        double v1xMinusV3x = x1 - x3;
+        double denominator = (v2yMinusV3y * v1xMinusV3x) + (v3xMinusV2x * (y1 - y3));
+
+        // triangles with no area on the map have no valid barycentric coordinates
+        if (denominator == 0) {
+            return;
+        }
+
+        // same incremental edge stepping as ColorMap.drawTriangle()
+        double w1StepX = v2yMinusV3y / denominator;
+        double w1StepY = v3xMinusV2x / denominator;
+        double w2StepX = v3yMinusV1y / denominator;
+        double w2StepY = v1xMinusV3x / denominator;
+
+        double rowW1 = ((v2yMinusV3y * (minBoundX - x3)) + (v3xMinusV2x * (minBoundY - y3))) / denominator;
+        double rowW2 = ((v3yMinusV1y * (minBoundX - x3)) + (v1xMinusV3x * (minBoundY - y3))) / denominator;
+
+        // the edges of the map are never written to
+        int firstCol = max(minBoundX, 1);
+        int lastCol = min(maxBoundX, width - 1);
 
         for (int row = minBoundY; row <= maxBoundY; row++) {
-            for (int col = minBoundX; col <= maxBoundX; col++) {
-                double[] bary = tri.barycentricCoords(col, row);
-                
-                if ((bary[0] >= 0) && (bary[1] >= 0) && (bary[2] >= 0)) {
-                    double depth = Util.baryInterpolate(bary, v1.depth(), v2.depth(), v3.depth());
-                    
-                    if (row > 0 && row < depthMap.length && col > 0 && col < depthMap[0].length) {
-                        if (depth > 0 && depth < depthMap[row][col]) {
-                            depthMap[row][col] = depth;
-                        }
+            if (row > 0 && row < height) {
+                double[] depthRow = depthMap[row];
+
+                if (vectorRaster) {
+                    // coverage, depth test and depth writes are all done a vector of pixels at a time
+                    Util.VECTOR_RASTER.drawRow(triangleCoords, t, row, firstCol, lastCol, depthRow);
+                } else {
+                    double w1 = rowW1;
+                    double w2 = rowW2;
+
+                    // step up to the first column that can be written
+                    for (int col = minBoundX; col < firstCol; col++) {
+                        w1 += w1StepX;
+                        w2 += w2StepX;
+                    }
+
+                    for (int col = firstCol; col <= lastCol; col++) {
+                        bary[0] = w1;
+                        bary[1] = w2;
+                        bary[2] = 1 - w1 - w2;
+
+                        w1 += w1StepX;
+                        w2 += w2StepX;
+
+                        drawPixel(depthRow, row, col, t, bary);
                     }
                 }
             }
+
+            rowW1 += w1StepY;
+            rowW2 += w2StepY;
         }
     }
+
+    // writes the triangle's depth at a pixel if the pixel is inside it and it is the closest so far. bary holds the
+    // stepped weights at the pixel
+    private void drawPixel(double[] depthRow, int row, int col, int t, double[] bary) {
+        // stepping accumulates rounding error, so pixels lying on an edge are re-evaluated
+        // exactly to keep coverage identical between neighbouring triangles
+        if (Math.abs(bary[0]) < Triangle.EDGE_EPSILON || Math.abs(bary[1]) < Triangle.EDGE_EPSILON || Math.abs(bary[2]) < Triangle.EDGE_EPSILON) {
+            exactBary(t, col, row, bary);
+        }
+
+        if ((bary[0] >= 0) && (bary[1] >= 0) && (bary[2] >= 0)) {
+            double depth = Util.baryInterpolate(bary, triangleCoords[t + 2], triangleCoords[t + 5], triangleCoords[t + 8]);
+
+            if (depth > 0 && depth < depthRow[col]) {
+                depthRow[col] = depth;
+            }
+        }
+    }
+
+    private void exactBary(int t, double pX, double pY, double[] weights) {
+        double x1 = triangleCoords[t], y1 = triangleCoords[t + 1];
+        double x2 = triangleCoords[t + 3], y2 = triangleCoords[t + 4];
+        double x3 = triangleCoords[t + 6], y3 = triangleCoords[t + 7];
+
+        double v2yMinusV3y = y2 - y3;
+        double v3xMinusV2x = x3 - x2;
+        double v3yMinusV1y = y3 - y1;
+        double v1xMinusV3x = x1 - x3;
+        double denominator = (v2yMinusV3y * v1xMinusV3x) + (v3xMinusV2x * (y1 - y3));
+
+        double pXMinusV3x = pX - x3;
+        double pYMinusV3y = pY - y3;
+
+        weights[0] = ((v2yMinusV3y * pXMinusV3x) + (v3xMinusV2x * pYMinusV3y)) / denominator;
+        weights[1] = ((v3yMinusV1y * pXMinusV3x) + (v1xMinusV3x * pYMinusV3y)) / denominator;
+        weights[2] = 1 - weights[0] - weights[1];
+    }
 }
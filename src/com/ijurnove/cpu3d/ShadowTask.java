@@ -0,0 +1,76 @@
+package com.ijurnove.cpu3d;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// draws a single tile of a shadow map. the tiles of every map that changed, from every light, are run together on the
+// render pool, so a single large map keeps every thread busy as well as many small ones do
+class ShadowTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    // maps are split into tiles this many pixels across and up
+    private static final int TILE_SIZE = 256;
+
+    private final ShadowMap map;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+
+    protected ShadowTask(ShadowMap map, int minX, int minY, int maxX, int maxY) {
+        this.map = map;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    @Override
+    protected void compute() {
+        map.drawTile(minX, minY, maxX, maxY);
+    }
+
+    // draws every tile of the given maps, returning once they are all done
+    protected static void drawMaps(ForkJoinPool pool, List<ShadowMap> maps) {
+        if (maps.isEmpty()) {
+            return;
+        }
+
+        List<ShadowTask> tasks = new ArrayList<>();
+        for (ShadowMap map : maps) {
+            for (ShadowTask task : map.getTiles()) {
+                task.reinitialize();
+                tasks.add(task);
+            }
+        }
+
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            ForkJoinTask.invokeAll(tasks);
+        }));
+    }
+
+    protected static ShadowTask[] createTasks(ShadowMap map, int width, int height) {
+        // the last row and column of tiles are cut off at the edge of the map
+        int tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesUp = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        ShadowTask[] tasks = new ShadowTask[tilesAcross * tilesUp];
+
+        int index = 0;
+
+        for (int row = 0; row < tilesUp; row++) {
+            for (int col = 0; col < tilesAcross; col++) {
+                tasks[index] = new ShadowTask(
+                    map,
+                    col * TILE_SIZE, row * TILE_SIZE,
+                    Math.min(((col + 1) * TILE_SIZE) - 1, width - 1), Math.min(((row + 1) * TILE_SIZE) - 1, height - 1)
+                );
+                index++;
+            }
+        }
+
+        return tasks;
+    }
+}
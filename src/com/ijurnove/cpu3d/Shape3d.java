@@ -7,30 +7,58 @@ import java.util.Set;
 
 /**
  * <code>Shape3d</code>s represent a three-dimensional shape with a texture and a material. 
+ * <p>
+ * A <code>Shape3d</code> draws a <code>Mesh</code>, which is never changed. Translating, rotating, and scaling a <code>Shape3d</code> only
+ * updates its model transform, which its vertices and normals are moved by as they are drawn, so moving it costs the same no matter how
+ * many vertices it has.
  */
 public class Shape3d implements Translatable, Rotatable, Scalable {
-    private final Triangle[] triangles;
+    // replaced, not changed, by flipNormals(), as other shapes may be drawing the same Mesh
+    private Mesh mesh;
     private BufferedImage texture;
     private Material material;
     private Scene parent;
 
     private final EnumMap<ShapeFlag, Integer> shapeFlags = new EnumMap<>(ShapeFlag.class);
+
+    // model transform, kept as a position, a rotation, and a uniform scale. a vertex's world position is
+    // position + (rotation * scale * vertex)
+    private final double[] position = new double[3];
+    private final Matrix4 rotation = Matrix4.identity();
+    private double scale = 1;
+    private final Matrix4 model = Matrix4.identity();
+    private boolean modelChanged = true;
+
+    // the Mesh's bounds moved by the model transform
+    private final Bounds worldBounds = new Bounds();
+    // goes up every time worldBounds changes, so shadow maps know which casters have moved
+    private int boundsVersion = 0;
+    // set while this shape is on its scene's ShapeBVH's list of moved shapes
+    private boolean moveQueued = false;
+
+    // simpler versions of the Mesh, from most to least detailed, and the largest screen size each is drawn at. they are in
+    // the same object space as the Mesh, and are drawn with this shape's model transform
+    private Mesh[] detailLevels = new Mesh[0];
+    private double[] detailSizes = new double[0];
+    // the version of the Mesh drawn this frame, either the Mesh itself or one of its detail levels, and the frame of the
+    // parent scene it was picked in
+    private Mesh drawnLevel;
+    private int levelFrame = -1;
     
     /**
      * Constructs a <code>Shape3d</code> with a specified <code>Mesh</code>, <code>Material</code>, and a texture represented by a <code>BufferedImage</code>.
+     * The <code>Mesh</code> isn't copied, and can be drawn by other <code>Shape3d</code>s as well.
      * @param mesh the specified Mesh
      * @param texture the specified texture
      * @param material the specified Material
      */
     public Shape3d(Mesh mesh, BufferedImage texture, Material material) {
-        for (Triangle tri : mesh.getTriangles()) {
-            tri.setParent(this);
-        }
-
-        this.triangles = mesh.getTriangles();
+        this.mesh = mesh;
+        this.drawnLevel = mesh;
         this.texture = texture;
         this.material = material;
 
+        setTriangleParents(mesh);
         initShapeFlags();
     }
 
@@ -38,19 +66,39 @@ public class Shape3d implements Translatable, Rotatable, Scalable {
      * Constructs a <code>Shape3d</code> with the given <code>Triangle[]</code>, without a texture or <code>Material</code>.
      */
     public Shape3d(Triangle[] triangles) {
-        this.triangles = triangles;
+        this.mesh = new Mesh(triangles);
+        this.drawnLevel = mesh;
 
-        for (Triangle t : this.triangles) {
-            t.setParent(this);
-        }
+        setTriangleParents(mesh);
+        initShapeFlags();
+    }
 
+    // an instance of source, drawing the same Mesh and detail levels with its own model transform, material, texture and flags
+    private Shape3d(Shape3d source) {
+        this.mesh = source.mesh;
+        this.drawnLevel = mesh;
+        this.texture = source.texture;
+        this.material = source.material;
+
+        // detail levels are only ever added by replacing the arrays, so they can be shared
+        this.detailLevels = source.detailLevels;
+        this.detailSizes = source.detailSizes;
+
+        matchTransform(source);
         initShapeFlags();
     }
 
+    private void setTriangleParents(Mesh levelMesh) {
+        for (Triangle t : levelMesh.getTriangles()) {
+            t.setParent(this);
+        }
+    }
+
     private void initShapeFlags() {
         this.shapeFlags.put(ShapeFlag.RECIEVE_LIGHTING, 1);
         this.shapeFlags.put(ShapeFlag.CAST_SHADOW, 1);
         this.shapeFlags.put(ShapeFlag.VISIBLE, 1);
+        this.shapeFlags.put(ShapeFlag.OCCLUDER, 0);
     }
 
     /**
@@ -76,23 +124,140 @@ public class Shape3d implements Translatable, Rotatable, Scalable {
     }
 
     /**
-     * Returns a new <code>Shape3d</code> that is a copy of this one with new references.
+     * Returns a new <code>Shape3d</code> that is a copy of this one with new references. The copy is placed where this
+     * <code>Shape3d</code> is.
      * @return an identical Shape3d
      */
     public Shape3d copy() {
-        Triangle[] copyTriangles = new Triangle[triangles.length];
-        for (int i = 0; i < copyTriangles.length; i++) {
-            copyTriangles[i] = triangles[i].copy();
+        Shape3d copy = new Shape3d(mesh.copy(), texture, material);
+
+        for (int i = 0; i < detailLevels.length; i++) {
+            copy.addDetailLevel(detailLevels[i].copy(), detailSizes[i]);
         }
 
-        return new Shape3d(new Mesh(copyTriangles), texture, material);
+        copy.matchTransform(this);
+        return copy;
     }
 
     /**
-     * Returns this <code>Shape3d</code>'s <code>Triangle</code> array.
+     * Returns a new <code>Shape3d</code> that draws the same <code>Mesh</code> and detail levels as this one instead of copying them.
+     * The instance has its own position, rotation, scale, <code>Material</code>, texture, and <code>ShapeFlag</code>s, and starts out in
+     * the same place as this <code>Shape3d</code>.
+     * <p>
+     * <code>Mesh</code>es are never changed, so nothing has to be kept in step between instances, and an instance takes no memory per vertex
+     * or per <code>Triangle</code>. Its vertices are projected into space shared by the whole <code>Scene</code> as it is drawn.
+     * <code>flipNormals()</code> gives the <code>Shape3d</code> it is called on a flipped copy of its <code>Mesh</code>, and leaves its
+     * instances as they are.
+     * @return an instance of this Shape3d
+     */
+    public Shape3d instance() {
+        return new Shape3d(this);
+    }
+
+    /**
+     * Adds a simpler version of this <code>Shape3d</code>, drawn in its place whenever this <code>Shape3d</code> covers less than
+     * <code>maxScreenSize</code> of the width of the screen. Size on screen is measured across a sphere around the whole <code>Shape3d</code>. When more
+     * than one level could be drawn, the one with the lowest <code>maxScreenSize</code> is used.
+     * <p>
+     * The <code>Mesh</code>'s vertices should be placed as this <code>Shape3d</code>'s <code>Mesh</code>'s are. The level is drawn with this
+     * <code>Shape3d</code>'s position, rotation, scale, texture, <code>Material</code>, and <code>ShapeFlag</code>s. Instances made before
+     * the level is added don't draw it.
+     * @param mesh the simpler Mesh
+     * @param maxScreenSize the largest fraction of the screen's width the level is drawn at
+     */
+    public void addDetailLevel(Mesh mesh, double maxScreenSize) {
+        setTriangleParents(mesh);
+
+        Mesh[] levels = new Mesh[detailLevels.length + 1];
+        double[] sizes = new double[detailSizes.length + 1];
+
+        // kept in order from the largest size to the smallest
+        int insertAt = 0;
+        while (insertAt < detailSizes.length && detailSizes[insertAt] >= maxScreenSize) {
+            insertAt++;
+        }
+
+        System.arraycopy(detailLevels, 0, levels, 0, insertAt);
+        System.arraycopy(detailSizes, 0, sizes, 0, insertAt);
+        levels[insertAt] = mesh;
+        sizes[insertAt] = maxScreenSize;
+        System.arraycopy(detailLevels, insertAt, levels, insertAt + 1, detailLevels.length - insertAt);
+        System.arraycopy(detailSizes, insertAt, sizes, insertAt + 1, detailSizes.length - insertAt);
+
+        this.detailLevels = levels;
+        this.detailSizes = sizes;
+    }
+
+    /**
+     * Generates a simpler version of this <code>Shape3d</code> for each given screen size with <code>Mesh.simplify()</code>, and adds them with
+     * <code>addDetailLevel()</code>. Going from the largest size to the smallest, each level keeps a quarter of the <code>Triangle</code>s of the
+     * one before it, since a shape at half the size covers a quarter of the pixels.
+     * @param maxScreenSizes the largest fraction of the screen's width each level is drawn at
+     */
+    public void generateDetailLevels(double... maxScreenSizes) {
+        double[] sizes = maxScreenSizes.clone();
+        Arrays.sort(sizes);
+
+        Mesh source = mesh;
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            Mesh simplified = source.simplify(source.getTriangles().length / 4);
+            addDetailLevel(simplified, sizes[i]);
+            source = simplified;
+        }
+    }
+
+    // picks which version of this shape is drawn this frame, from how much of the screen's width its bounding sphere covers
+    private void selectDetailLevel(Camera cam) {
+        this.drawnLevel = mesh;
+
+        if (detailLevels.length == 0 || cam.getParent().getFlag(SceneFlag.LEVEL_OF_DETAIL) == 0) {
+            return;
+        }
+
+        Bounds bounds = getBounds();
+        double x = bounds.centerValue(0);
+        double y = bounds.centerValue(1);
+        double z = bounds.centerValue(2);
+
+        Matrix4 view = cam.getViewMatrix();
+        double viewX = view.transformRow(0, x, y, z);
+        double viewY = view.transformRow(1, x, y, z);
+        double viewZ = view.transformRow(2, x, y, z);
+
+        // the view matrix doesn't scale, so this is the distance to the camera
+        double distance = Math.sqrt((viewX * viewX) + (viewY * viewY) + (viewZ * viewZ));
+        if (distance <= bounds.radius()) {
+            return;
+        }
+
+        // screen x goes from -0.5 to 0.5 of the width over a view space range of distance * tan(fov / 2)
+        double screenSize = (2 * bounds.radius()) / (distance * Math.tan(Math.toRadians(cam.getFov()) / 2));
+
+        for (int i = detailLevels.length - 1; i >= 0; i--) {
+            if (screenSize < detailSizes[i]) {
+                this.drawnLevel = detailLevels[i];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns this <code>Shape3d</code>'s <code>Triangle</code> array, which belongs to its <code>Mesh</code>. The <code>Triangle</code>s
+     * are placed as they are in the <code>Mesh</code>, before this <code>Shape3d</code>'s position, rotation and scale.
      * @return the Triangle[] of this Shape3d
      */
-    public Triangle[] getTriangles() { return this.triangles; }
+    public Triangle[] getTriangles() { return this.mesh.getTriangles(); }
+
+    // the version of the Mesh drawn this frame. it is picked the first time it is asked for in a frame, which only happens
+    // for shapes that are drawn or cast a shadow, and every map and the main pass then use the same one so they line up
+    protected Mesh drawnMesh() {
+        if (parent != null && levelFrame != parent.getFrame()) {
+            this.levelFrame = parent.getFrame();
+            selectDetailLevel(parent.getViewCamera());
+        }
+
+        return this.drawnLevel;
+    }
     
     /**
      * Returns the texture of this <code>Shape3d</code> as a <code>BufferedImage</code>.
@@ -125,96 +290,172 @@ public class Shape3d implements Translatable, Rotatable, Scalable {
     public void setMaterial(Material material) { this.material = material; }
 
     /**
-     * Inverts all surface and point normals of this <code>Shape3d</code>, essentially flipping it inside out.
+     * Inverts all surface and point normals of this <code>Shape3d</code>, essentially flipping it inside out. Other <code>Shape3d</code>s
+     * drawing the same <code>Mesh</code> are not flipped.
      */
     public void flipNormals() {
-        for (Triangle t : triangles) {
-            t.flip();
+        Mesh flipped = mesh.flipped();
+
+        Mesh[] flippedLevels = new Mesh[detailLevels.length];
+        for (int i = 0; i < detailLevels.length; i++) {
+            flippedLevels[i] = detailLevels[i].flipped();
+            setTriangleParents(flippedLevels[i]);
+
+            if (drawnLevel == detailLevels[i]) {
+                drawnLevel = flippedLevels[i];
+            }
+        }
+
+        if (drawnLevel == mesh) {
+            drawnLevel = flipped;
         }
+
+        this.mesh = flipped;
+        this.detailLevels = flippedLevels;
+        setTriangleParents(mesh);
     }
 
     @Override
     public void scale(double scale, Point3d point) {
-        for (Point3d p : this.uniqueVertices()) {
-            p.scale(scale, point);
+        // a scale of 0 collapses the shape onto a point, and a negative one turns it inside out without flipping its normals
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("A Shape3d can only be scaled by a positive amount, not " + scale);
         }
+
+        double px = point.xReal();
+        double py = point.yReal();
+        double pz = point.zReal();
+
+        position[0] = scale * (position[0] - px) + px;
+        position[1] = scale * (position[1] - py) + py;
+        position[2] = scale * (position[2] - pz) + pz;
+
+        this.scale *= scale;
+        transformChanged();
     }
 
+    // goes around origin
     protected void rotate(int axis, double theta) {
-        for (Point3d p : this.uniqueVertices()) {
-            p.rotate(axis, theta);
-        }
+        rotate(axis, theta, Point3d.ORIGIN);
+    }
 
-        for (Vector3d v : this.uniquePointNormals()) {
-            v.rotate(axis, theta);
-        }
+    @Override
+    public void rotate(int axis, double theta, Point3d point) {
+        Matrix4 rotMatrix = Matrix4.rotation(axis, theta);
 
-        for (Triangle t : this.getTriangles()) {
-            t.getSurfNorm().rotate(axis, theta);
-        }
+        double px = point.xReal();
+        double py = point.yReal();
+        double pz = point.zReal();
+
+        position[0] -= px;
+        position[1] -= py;
+        position[2] -= pz;
+        rotMatrix.transformPosition(position, 0);
+        position[0] += px;
+        position[1] += py;
+        position[2] += pz;
+
+        Matrix4 newRotation = new Matrix4();
+        Matrix4.multiplyInto(rotMatrix, rotation, newRotation);
+        rotation.setValues(newRotation);
+
+        transformChanged();
     }
 
     @Override
-    public void rotate(int axis, double theta, Point3d point) {
-        for (Point3d p : this.uniqueVertices()) {
-            p.rotate(axis, theta, point);
-        }
+    public void translate(double x, double y, double z) {
+        position[0] += x;
+        position[1] += y;
+        position[2] += z;
 
-        for (Vector3d v : this.uniquePointNormals()) {
-            v.rotate(axis, theta);
-        }
+        transformChanged();
+    }
+
+    private void transformChanged() {
+        this.modelChanged = true;
 
-        for (Triangle t : this.getTriangles()) {
-            t.getSurfNorm().rotate(axis, theta);
+        // the scene's tree only refits the shapes that tell it they moved
+        if (!moveQueued && parent != null) {
+            this.moveQueued = true;
+            parent.getShapeBVH().shapeMoved(this);
         }
     }
-    
-    private void shiftPoints(int axis, double distance) {
-        for (Point3d p : this.uniqueVertices()) {
-            p.shiftValue(axis, distance);
+
+    // the scene's tree has refitted around this shape's new bounds
+    protected void moveHandled() {
+        this.moveQueued = false;
+    }
+
+    private void matchTransform(Shape3d source) {
+        System.arraycopy(source.position, 0, position, 0, 3);
+        this.rotation.setValues(source.rotation);
+        this.scale = source.scale;
+        transformChanged();
+    }
+
+    // the model transform, taking the Mesh's vertices to world space
+    protected Matrix4 getModel() {
+        updateModel();
+        return this.model;
+    }
+
+    // rebuilds the model matrix and moves the bounds with it. no vertex is ever touched
+    private void updateModel() {
+        if (!modelChanged) {
+            return;
+        }
+
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                model.setValue(col, row, rotation.getValue(col, row) * scale);
+            }
+
+            model.setValue(3, row, position[row]);
         }
+
+        worldBounds.transform(mesh.getBounds(), model, scale);
+        boundsVersion++;
+
+        this.modelChanged = false;
     }
-    
-    private void shiftOnX(double distance) { shiftPoints(0, distance); }
-    private void shiftOnY(double distance) { shiftPoints(1, distance); }
-    private void shiftOnZ(double distance) { shiftPoints(2, distance); }
-    
-    @Override
-    public void translate(double x, double y, double z) {
-        shiftOnX(x);
-        shiftOnY(y);
-        shiftOnZ(z);
+
+    // the world space bounds of this shape, found by moving the Mesh's bounds rather than its vertices
+    protected Bounds getBounds() {
+        updateModel();
+        return worldBounds;
     }
+
+    protected int boundsVersion() { return this.boundsVersion; }
     
     /**
-     * Returns a <code>Point3d</code> array consisting of every unique vertex in this <code>Shape3d</code>.
+     * Returns a <code>Point3d</code> array consisting of every unique vertex in this <code>Shape3d</code>, where it is drawn. The points are
+     * copies, so moving them doesn't move this <code>Shape3d</code>.
      * @return a list of every unique vertex
      */
     public Point3d[] uniqueVertices() {
-        Set<Point3d> points = new HashSet<>();
-        for (Triangle t : this.triangles) {
-            points.addAll(Arrays.asList(t.getVertices()));
-        }
-        
-        Point3d[] pointArray = new Point3d[points.size()];
+        Matrix4 m = getModel();
+        VertexBuffer buffer = mesh.getVertexBuffer();
 
-        int i = 0;
-        for (Point3d p : points) {
-            pointArray[i] = p;
-            i++;
+        Point3d[] vertices = new Point3d[buffer.size()];
+        for (int i = 0; i < vertices.length; i++) {
+            double x = buffer.x(i);
+            double y = buffer.y(i);
+            double z = buffer.z(i);
+
+            vertices[i] = new Point3d(m.transformRow(0, x, y, z), m.transformRow(1, x, y, z), m.transformRow(2, x, y, z));
         }
 
-        return pointArray;
-        
+        return vertices;
     }
 
     /**
-     * Returns a <code>Vector3d</code> array consisting of every unique point normal in this <code>Shape3d</code>.
+     * Returns a <code>Vector3d</code> array consisting of every unique point normal in this <code>Shape3d</code>, turned the way it is drawn.
+     * The normals are copies, so changing them doesn't change this <code>Shape3d</code>.
      * @return a list of every unique point normal
      */
     public Vector3d[] uniquePointNormals() {
         Set<Vector3d> norms = new HashSet<>();
-        for (Triangle t : this.triangles) {
+        for (Triangle t : getTriangles()) {
             norms.addAll(Arrays.asList(t.getPointNormals()));
         }
         
@@ -222,40 +463,14 @@ public class Shape3d implements Translatable, Rotatable, Scalable {
 
         int i = 0;
         for (Vector3d v : norms) {
-            normArray[i] = v;
+            normArray[i] = v.copy();
+            normArray[i].transform(rotation);
             i++;
         }
 
         return normArray;
         
     }
-
-    protected void perspProjectionForPointShadowMap(Camera c) {
-        for (Triangle t : this.triangles) {
-            t.perspProjectionForPointShadowMap(c);
-
-            t.updateValues();
-            t.getCenter().perspProjectionForPointShadowMap(c);
-        }
-    }
-
-    protected void perspProjection(Camera c) {
-        for (Triangle t : this.triangles) {
-            t.perspProjection(c);
-
-            t.updateValues();
-            t.getCenter().perspProjection(c);
-        }
-    }
-
-    protected void orthoProjection(Camera c) {
-        for (Triangle t : this.triangles) {
-            t.orthoProjection(c);
-            
-            t.updateValues();
-            t.getCenter().orthoProjection(c);
-        }
-    }
     
     /**
      * Calculates and returns the center of this <code>Shape3d</code> as a <code>Point3d</code>.
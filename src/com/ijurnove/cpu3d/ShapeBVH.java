@@ -0,0 +1,437 @@
+package com.ijurnove.cpu3d;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+// bounding volume hierarchy over the shapes of a scene, so culling only visits the parts of the scene a camera can see.
+// built top down with the surface area heuristic, and refitted from the leaves up when shapes move. shapes list themselves
+// as moved, so a frame in which nothing moves costs nothing. nodes are kept in flat arrays, and every node covers a
+// contiguous range of the reordered shape array
+class ShapeBVH {
+    private static final int MAX_LEAF_SIZE = 4;
+    private static final int SAH_BINS = 12;
+    // refitting loosens the tree as shapes move, so it is rebuilt once the root has grown this much past its size when built
+    private static final double REBUILD_GROWTH = 2;
+
+    // shapes in tree order, with their index in the scene and the leaf holding them
+    private Shape3d[] shapes = new Shape3d[0];
+    private int[] sceneIndices = new int[0];
+    private int[] shapeLeaves = new int[0];
+    // where each shape is in tree order, so a moved shape's leaf is found without a search
+    private final IdentityHashMap<Shape3d, Integer> treeIndices = new IdentityHashMap<>();
+
+    // shapes moved since the last update, each listed once
+    private Shape3d[] moved = new Shape3d[16];
+    private int movedCount = 0;
+
+    // scene indices found by the last query, and the stack used to walk the tree. kept between queries, as the scene
+    // queries the tree several times a frame
+    private int[] found = new int[16];
+    private int[] queryStack = new int[32];
+
+    // min x, y, z then max x, y, z of every node
+    private double[] boxes = new double[0];
+    // interior nodes have their children at left and left + 1. leaves have a left of -1
+    private int[] lefts = new int[0];
+    private int[] parents = new int[0];
+    private int[] starts = new int[0];
+    private int[] ends = new int[0];
+    private int nodeCount = 0;
+
+    private boolean valid = false;
+    private double builtArea = 0;
+
+    // the shapes have changed, so the tree is rebuilt on the next update
+    protected void invalidate() {
+        this.valid = false;
+    }
+
+    // called by a shape the first time it moves after an update, so its leaf is refitted on the next one
+    protected void shapeMoved(Shape3d shape) {
+        if (movedCount == moved.length) {
+            moved = Arrays.copyOf(moved, movedCount * 2);
+        }
+
+        moved[movedCount++] = shape;
+    }
+
+    // brings the tree up to date: rebuilt if the scene's shapes have changed, otherwise refitted around the shapes that moved
+    protected void update(List<Shape3d> sceneShapes) {
+        if (!valid || sceneShapes.size() != shapes.length) {
+            clearMoved();
+            build(sceneShapes);
+            return;
+        }
+
+        if (movedCount == 0) {
+            return;
+        }
+
+        for (int m = 0; m < movedCount; m++) {
+            Integer i = treeIndices.get(moved[m]);
+
+            // shapes can be given this scene as a parent without being added to it
+            if (i != null) {
+                refit(shapeLeaves[i]);
+            }
+        }
+
+        clearMoved();
+
+        if (nodeCount > 0 && surfaceArea(0) > builtArea * REBUILD_GROWTH) {
+            build(sceneShapes);
+        }
+    }
+
+    private void clearMoved() {
+        for (int m = 0; m < movedCount; m++) {
+            moved[m].moveHandled();
+            moved[m] = null;
+        }
+
+        this.movedCount = 0;
+    }
+
+    // the lowest and highest value along an axis of every shape in the scene
+    protected double minValue(int axis) { return nodeCount == 0 ? 0 : boxes[axis]; }
+    protected double maxValue(int axis) { return nodeCount == 0 ? 0 : boxes[3 + axis]; }
+
+    // finds the scene index of every shape whose bounds intersect the frustum, and returns how many there are. they are
+    // the first values of found(), in no particular order, until the next query. if occlusion is not null, shapes and whole
+    // nodes hidden behind its occluders are skipped as well
+    protected int findInFrustum(Frustum frustum, OcclusionBuffer occlusion) {
+        if (nodeCount == 0) {
+            return 0;
+        }
+
+        if (found.length < shapes.length) {
+            found = new int[shapes.length];
+        }
+
+        int foundCount = 0;
+        int stackSize = 0;
+        queryStack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = queryStack[--stackSize];
+            int b = node * 6;
+
+            int result = frustum.classify(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+
+            if (result == Frustum.OUTSIDE) {
+                continue;
+            }
+
+            if (occlusion != null && occlusion.isOccluded(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5])) {
+                continue;
+            }
+
+            if (result == Frustum.INSIDE && occlusion == null) {
+                // everything below this node is in view, so nothing below it needs testing
+                for (int i = starts[node]; i < ends[node]; i++) {
+                    found[foundCount++] = sceneIndices[i];
+                }
+            } else if (lefts[node] == -1) {
+                for (int i = starts[node]; i < ends[node]; i++) {
+                    Bounds bounds = shapes[i].getBounds();
+
+                    if (
+                        (result == Frustum.INSIDE || frustum.intersects(bounds)) &&
+                        (occlusion == null || !occlusion.isOccluded(bounds))
+                    ) {
+                        found[foundCount++] = sceneIndices[i];
+                    }
+                }
+            } else {
+                if (stackSize + 2 > queryStack.length) {
+                    queryStack = Arrays.copyOf(queryStack, queryStack.length * 2);
+                }
+
+                queryStack[stackSize++] = lefts[node] + 1;
+                queryStack[stackSize++] = lefts[node];
+            }
+        }
+
+        return foundCount;
+    }
+
+    protected int[] found() { return this.found; }
+
+    private void build(List<Shape3d> sceneShapes) {
+        int count = sceneShapes.size();
+
+        this.shapes = sceneShapes.toArray(Shape3d[]::new);
+        treeIndices.clear();
+        this.sceneIndices = new int[count];
+        this.shapeLeaves = new int[count];
+
+        // centroids of every shape's box, reordered along with the shapes
+        double[] centroids = new double[count * 3];
+
+        for (int i = 0; i < count; i++) {
+            Bounds bounds = shapes[i].getBounds();
+            sceneIndices[i] = i;
+
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[(i * 3) + axis] = (bounds.minValue(axis) + bounds.maxValue(axis)) / 2;
+            }
+        }
+
+        int maxNodes = Math.max(1, (2 * count) - 1);
+        this.boxes = new double[maxNodes * 6];
+        this.lefts = new int[maxNodes];
+        this.parents = new int[maxNodes];
+        this.starts = new int[maxNodes];
+        this.ends = new int[maxNodes];
+
+        this.valid = true;
+
+        if (count == 0) {
+            this.nodeCount = 0;
+            this.builtArea = 0;
+            return;
+        }
+
+        this.nodeCount = 1;
+        parents[0] = -1;
+
+        // nodes still to be split, as node index, first shape and end of its range. done with a stack instead of recursion,
+        // as a badly balanced scene can go very deep
+        int[] stack = new int[32 * 3];
+        int stackSize = 0;
+
+        stack[stackSize++] = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = count;
+
+        while (stackSize > 0) {
+            int end = stack[--stackSize];
+            int start = stack[--stackSize];
+            int node = stack[--stackSize];
+
+            starts[node] = start;
+            ends[node] = end;
+            lefts[node] = -1;
+            fitNode(node);
+
+            int split = findSplit(node, start, end, centroids);
+
+            if (split == -1) {
+                for (int i = start; i < end; i++) {
+                    shapeLeaves[i] = node;
+                }
+                continue;
+            }
+
+            int left = nodeCount;
+            nodeCount += 2;
+
+            lefts[node] = left;
+            parents[left] = node;
+            parents[left + 1] = node;
+
+            if (stackSize + 6 > stack.length) {
+                int[] bigger = new int[stack.length * 2];
+                System.arraycopy(stack, 0, bigger, 0, stackSize);
+                stack = bigger;
+            }
+
+            stack[stackSize++] = left;
+            stack[stackSize++] = start;
+            stack[stackSize++] = split;
+
+            stack[stackSize++] = left + 1;
+            stack[stackSize++] = split;
+            stack[stackSize++] = end;
+        }
+
+        this.builtArea = surfaceArea(0);
+
+        for (int i = 0; i < count; i++) {
+            treeIndices.put(shapes[i], i);
+        }
+    }
+
+    // picks the cheapest place to split a node's shapes according to the surface area heuristic, and reorders them so
+    // the left side comes first. returns the index of the first shape on the right side, or -1 if the node should stay a leaf
+    private int findSplit(int node, int start, int end, double[] centroids) {
+        int count = end - start;
+
+        if (count <= 1) {
+            return -1;
+        }
+
+        double[] centroidMin = new double[] {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] centroidMax = new double[] {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+        for (int i = start; i < end; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                centroidMin[axis] = Math.min(centroidMin[axis], centroids[(i * 3) + axis]);
+                centroidMax[axis] = Math.max(centroidMax[axis], centroids[(i * 3) + axis]);
+            }
+        }
+
+        int axis = 0;
+        for (int a = 1; a < 3; a++) {
+            if (centroidMax[a] - centroidMin[a] > centroidMax[axis] - centroidMin[axis]) {
+                axis = a;
+            }
+        }
+
+        double extent = centroidMax[axis] - centroidMin[axis];
+
+        // every centroid is in the same place, so there is nothing to sort them by
+        if (extent <= 0) {
+            return count <= MAX_LEAF_SIZE ? -1 : start + (count / 2);
+        }
+
+        int[] binCounts = new int[SAH_BINS];
+        double[] binBoxes = new double[SAH_BINS * 6];
+        for (int bin = 0; bin < SAH_BINS; bin++) {
+            emptyBox(binBoxes, bin * 6);
+        }
+
+        for (int i = start; i < end; i++) {
+            int bin = binOf(centroids[(i * 3) + axis], centroidMin[axis], extent);
+            binCounts[bin]++;
+            growBox(binBoxes, bin * 6, shapes[i].getBounds());
+        }
+
+        // surface area of everything left of each split, swept from the left, then the right side swept from the right
+        double[] leftAreas = new double[SAH_BINS - 1];
+        int[] leftCounts = new int[SAH_BINS - 1];
+        double[] sweep = new double[6];
+
+        emptyBox(sweep, 0);
+        int sweepCount = 0;
+        for (int bin = 0; bin < SAH_BINS - 1; bin++) {
+            unionBox(sweep, binBoxes, bin * 6);
+            sweepCount += binCounts[bin];
+            leftAreas[bin] = boxArea(sweep, 0);
+            leftCounts[bin] = sweepCount;
+        }
+
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestSplit = -1;
+
+        emptyBox(sweep, 0);
+        sweepCount = 0;
+        for (int bin = SAH_BINS - 1; bin > 0; bin--) {
+            unionBox(sweep, binBoxes, bin * 6);
+            sweepCount += binCounts[bin];
+
+            if (sweepCount == 0 || leftCounts[bin - 1] == 0) {
+                continue;
+            }
+
+            double cost = (leftAreas[bin - 1] * leftCounts[bin - 1]) + (boxArea(sweep, 0) * sweepCount);
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestSplit = bin - 1;
+            }
+        }
+
+        // a leaf costs one test per shape over the whole node's area
+        if (count <= MAX_LEAF_SIZE && bestCost >= surfaceArea(node) * count) {
+            return -1;
+        }
+
+        int mid = start;
+        for (int i = start; i < end; i++) {
+            if (binOf(centroids[(i * 3) + axis], centroidMin[axis], extent) <= bestSplit) {
+                swap(i, mid, centroids);
+                mid++;
+            }
+        }
+
+        if (mid == start || mid == end) {
+            mid = start + (count / 2);
+        }
+
+        return mid;
+    }
+
+    private static int binOf(double centroid, double min, double extent) {
+        return Math.min(SAH_BINS - 1, (int) ((centroid - min) * SAH_BINS / extent));
+    }
+
+    private void swap(int i, int j, double[] centroids) {
+        Shape3d shape = shapes[i];
+        shapes[i] = shapes[j];
+        shapes[j] = shape;
+
+        int index = sceneIndices[i];
+        sceneIndices[i] = sceneIndices[j];
+        sceneIndices[j] = index;
+
+        for (int axis = 0; axis < 3; axis++) {
+            double c = centroids[(i * 3) + axis];
+            centroids[(i * 3) + axis] = centroids[(j * 3) + axis];
+            centroids[(j * 3) + axis] = c;
+        }
+    }
+
+    // fits a leaf to its shapes, then every node above it to its children
+    private void refit(int leaf) {
+        fitNode(leaf);
+
+        for (int node = parents[leaf]; node != -1; node = parents[node]) {
+            int b = node * 6;
+            emptyBox(boxes, b);
+            unionBox(boxes, b, boxes, lefts[node] * 6);
+            unionBox(boxes, b, boxes, (lefts[node] + 1) * 6);
+        }
+    }
+
+    // fits a node to every shape in its range
+    private void fitNode(int node) {
+        int b = node * 6;
+        emptyBox(boxes, b);
+
+        for (int i = starts[node]; i < ends[node]; i++) {
+            growBox(boxes, b, shapes[i].getBounds());
+        }
+    }
+
+    private double surfaceArea(int node) {
+        return boxArea(boxes, node * 6);
+    }
+
+    private static void emptyBox(double[] box, int b) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[b + axis] = Double.POSITIVE_INFINITY;
+            box[b + 3 + axis] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void growBox(double[] box, int b, Bounds bounds) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[b + axis] = Math.min(box[b + axis], bounds.minValue(axis));
+            box[b + 3 + axis] = Math.max(box[b + 3 + axis], bounds.maxValue(axis));
+        }
+    }
+
+    private static void unionBox(double[] box, double[] other, int o) {
+        unionBox(box, 0, other, o);
+    }
+
+    private static void unionBox(double[] box, int b, double[] other, int o) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[b + axis] = Math.min(box[b + axis], other[o + axis]);
+            box[b + 3 + axis] = Math.max(box[b + 3 + axis], other[o + 3 + axis]);
+        }
+    }
+
+    // half the surface area, which is all the heuristic needs. empty boxes have none
+    private static double boxArea(double[] box, int b) {
+        double x = box[b + 3] - box[b];
+        double y = box[b + 4] - box[b + 1];
+        double z = box[b + 5] - box[b + 2];
+
+        if (x < 0 || y < 0 || z < 0) {
+            return 0;
+        }
+
+        return (x * y) + (y * z) + (z * x);
+    }
+}
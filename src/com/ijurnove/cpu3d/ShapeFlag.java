@@ -23,5 +23,14 @@ public enum ShapeFlag {
      * <br>
      * Default value of 1.
      */
-    VISIBLE
+    VISIBLE,
+
+    /**
+     * Controls whether or not the <code>Shape3d</code> is used as an occluder. Before the rest of the <code>Scene</code> is drawn, occluders are drawn
+     * into a small depth buffer, and shapes entirely hidden behind them are skipped. Best suited to large, solid shapes such as walls and floors.
+     * Only has an effect while <code>SceneFlag.OCCLUSION_CULLING</code> is on. A value of 0 turns it off, and 1 turns it on.
+     * <br>
+     * Default value of 0.
+     */
+    OCCLUDER
 }
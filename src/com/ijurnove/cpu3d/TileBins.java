@@ -0,0 +1,146 @@
+package com.ijurnove.cpu3d;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+// sorts each frame's triangles into per-tile lists, so a RenderTask only rasterizes the triangles
+// whose screen bounding box touches its tile. triangle order is preserved within every bin
+class TileBins {
+    // triangles are binned in chunks of this size, one chunk per parallel job
+    private static final int CHUNK_SIZE = 2048;
+
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int tilesAcross;
+    private final int tilesUp;
+
+    private final int screenWidth;
+    private final int screenHeight;
+
+    private final int[][] bins;
+    private final int[] binSizes;
+
+    // tile range covered by each triangle: first column, first row, last column, last row
+    private int[] tileRanges = new int[0];
+
+    protected TileBins(int tileWidth, int tileHeight, int screenWidth, int screenHeight) {
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+
+        this.tilesAcross = (screenWidth + tileWidth - 1) / tileWidth;
+        this.tilesUp = (screenHeight + tileHeight - 1) / tileHeight;
+
+        this.bins = new int[tilesAcross * tilesUp][0];
+        this.binSizes = new int[tilesAcross * tilesUp];
+    }
+
+    // indices of the triangles that can touch a tile, only the first binSize(tile) values are used
+    protected int[] getBin(int tile) { return this.bins[tile]; }
+    protected int binSize(int tile) { return this.binSizes[tile]; }
+
+    protected void bin(DrawList drawn) {
+        int triCount = drawn.size();
+
+        if (tileRanges.length < triCount * 4) {
+            tileRanges = new int[triCount * 4];
+        }
+
+        // parallel streams run on the pool of the task calling this, if there is one
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+
+        int tileCount = bins.length;
+        int chunkCount = max(1, min(
+            (triCount + CHUNK_SIZE - 1) / CHUNK_SIZE,
+            pool.getParallelism() * 4
+        ));
+        int chunkSize = (triCount + chunkCount - 1) / chunkCount;
+
+        // first pass: find each triangle's tile range and count how many triangles land in each tile per chunk
+        int[][] chunkCounts = new int[chunkCount][tileCount];
+
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int[] counts = chunkCounts[chunk];
+            int end = min(triCount, (chunk + 1) * chunkSize);
+
+            for (int i = chunk * chunkSize; i < end; i++) {
+                if (!findTileRange(drawn, i)) {
+                    continue;
+                }
+
+                for (int row = tileRanges[(i * 4) + 1]; row <= tileRanges[(i * 4) + 3]; row++) {
+                    for (int col = tileRanges[i * 4]; col <= tileRanges[(i * 4) + 2]; col++) {
+                        counts[(row * tilesAcross) + col]++;
+                    }
+                }
+            }
+        });
+
+        // turn the counts into each chunk's starting position within every bin
+        for (int tile = 0; tile < tileCount; tile++) {
+            int total = 0;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                int count = chunkCounts[chunk][tile];
+                chunkCounts[chunk][tile] = total;
+                total += count;
+            }
+
+            binSizes[tile] = total;
+            if (bins[tile].length < total) {
+                bins[tile] = new int[total];
+            }
+        }
+
+        // second pass: write triangle indices, chunks fill separate parts of each bin so they never overlap
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int[] positions = chunkCounts[chunk];
+            int end = min(triCount, (chunk + 1) * chunkSize);
+
+            for (int i = chunk * chunkSize; i < end; i++) {
+                if (tileRanges[i * 4] < 0) {
+                    continue;
+                }
+
+                for (int row = tileRanges[(i * 4) + 1]; row <= tileRanges[(i * 4) + 3]; row++) {
+                    for (int col = tileRanges[i * 4]; col <= tileRanges[(i * 4) + 2]; col++) {
+                        int tile = (row * tilesAcross) + col;
+                        bins[tile][positions[tile]++] = i;
+                    }
+                }
+            }
+        });
+    }
+
+    // stores the range of tiles touched by a triangle's bounding box, returns false if it is entirely off screen
+    private boolean findTileRange(DrawList drawn, int index) {
+        double x1 = drawn.xRend(index, 0);
+        double x2 = drawn.xRend(index, 1);
+        double x3 = drawn.xRend(index, 2);
+        double y1 = drawn.yRend(index, 0);
+        double y2 = drawn.yRend(index, 1);
+        double y3 = drawn.yRend(index, 2);
+
+        int minBoundX = max((int) min(x1, min(x2, x3)), 0);
+        int minBoundY = max((int) min(y1, min(y2, y3)), 0);
+
+        int maxBoundX = min((int) max(x1, max(x2, x3)), screenWidth - 1);
+        int maxBoundY = min((int) max(y1, max(y2, y3)), screenHeight - 1);
+
+        int start = index * 4;
+
+        if (minBoundX > maxBoundX || minBoundY > maxBoundY) {
+            tileRanges[start] = -1;
+            return false;
+        }
+
+        tileRanges[start] = minBoundX / tileWidth;
+        tileRanges[start + 1] = minBoundY / tileHeight;
+        tileRanges[start + 2] = maxBoundX / tileWidth;
+        tileRanges[start + 3] = maxBoundY / tileHeight;
+
+        return true;
+    }
+}
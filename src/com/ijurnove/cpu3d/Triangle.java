@@ -1,39 +1,29 @@
 package com.ijurnove.cpu3d;
-import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 /**
  * A <code>Triangle</code> holds three <code>Point3d</code>s, three point normals, three <code>UV</code> coordinates, and one surface normal. Point normals define the direction
  * each vertex is facing. The surface normal defines the direction the entire <code>Triangle</code> is facing. <code>UV</code> coordinates define the texture coordinates at
  * each vertex.
  * <p>
- * Texture and <code>Material</code> data is taken from the parent <code>Shape3d</code>.
+ * Once a <code>Triangle</code> is part of a <code>Mesh</code>, its vertices and normals are in the <code>Mesh</code>'s object space, and
+ * every <code>Shape3d</code> drawing that <code>Mesh</code> shares it. Texture and <code>Material</code> data is taken from the
+ * <code>Shape3d</code> it is drawn for.
  */
-public class Triangle implements Comparable<Triangle>, Translatable, Rotatable, Scalable {
+public class Triangle implements Translatable, Rotatable, Scalable {
     private final Point3d[] vertices;
     private Vector3d[] pointNormals = new Vector3d[3];
     private UV[] textureCoords = new UV[3];
     private Shape3d parent;
     
     private Vector3d surfNormal;
-    
-    private Point3d center;
-    private double centerZ = 0;
 
     private boolean calcPointNorms = false;
-    
-    private boolean shown = false;
-
-    // cached values for barycentric coordinates
-    private double baryDenominator = 1;
-
-    // double weight1Numerator = ((v2.yRend() - v3.yRend()) * (pX - v3.xRend())) + ((v3.xRend() - v2.xRend()) * (pY - v3.yRend()));
-    private double v2y_minus_v3y = 1;
-    private double v3x_minus_v2x = 1;
 
-    // double weight2Numerator ((v3.yRend() - v1.yRend()) * (pX - v3.xRend())) + ((v1.xRend() - v3.xRend()) * (pY - v3.yRend()));
-    private double v3y_minus_v1y = 1;
-    private double v1x_minus_v3x = 1;
+    // barycentric weights closer to 0 than this are recalculated exactly when rasterizing
+    protected static final double EDGE_EPSILON = 1e-9;
 
     /**
      * Constructs a new <code>Triangle</code> with the given vertices and point normals.
@@ -65,11 +55,6 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
 
     private void initialize() {
         updSurfNorm();
-        updCenter();
-
-        for (Point3d p : this.vertices) {
-            p.addAdjTri(this);
-        }
     }
 
     protected void setParent(Shape3d parent) {
@@ -77,7 +62,8 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
     }
 
     /**
-     * Returns the parent <code>Shape3d</code> of this <code>Triangle</code>.
+     * Returns the parent <code>Shape3d</code> of this <code>Triangle</code>, the last one built from its <code>Mesh</code>. Instances
+     * of that <code>Shape3d</code> draw this same <code>Triangle</code>.
      * @return the parent Shape3d of this Triangle
      */
     public Shape3d getParent() {
@@ -89,14 +75,15 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
      * @return an identical Triangle
      */
     public Triangle copy() {
-        Point3d[] copyVertices = new Point3d[vertices.length];
-        for (int i = 0; i < copyVertices.length; i++) {
-            copyVertices[i] = vertices[i].copy();
-        }
+        return copy(vertices[0].copy(), vertices[1].copy(), vertices[2].copy(), new IdentityHashMap<>());
+    }
 
+    // copies everything but the vertices, which are replaced with the given ones. point normals are copied through
+    // normals, so triangles copied together still share the normals they shared before
+    protected Triangle copy(Point3d v1, Point3d v2, Point3d v3, IdentityHashMap<Vector3d, Vector3d> normals) {
         Vector3d[] copyPointNorms = new Vector3d[pointNormals.length];
         for (int i = 0; i < copyPointNorms.length; i++) {
-            copyPointNorms[i] = pointNormals[i].copy();
+            copyPointNorms[i] = normals.computeIfAbsent(pointNormals[i], Vector3d::copy);
         }
 
         UV[] copyTextureCoords = new UV[textureCoords.length];
@@ -104,11 +91,11 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
             copyTextureCoords[i] = textureCoords[i].copy();
         }
         
-        Triangle copy = new Triangle(copyVertices);
+        Triangle copy = new Triangle(v1, v2, v3);
         copy.pointNormals = copyPointNorms;
         copy.textureCoords = copyTextureCoords;
         // not setting a parent might cause issues later,
-        // however this doesn't matter in Shape3d.copy() (which is the only place this is used),
+        // however this doesn't matter in Mesh.copy() (which is the only place this is used),
         // since it sets the parents for each triangle in the Shape3d
         // constructor
         copy.surfNormal = surfNormal.copy();
@@ -119,8 +106,12 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
     protected void maybeCalculatePointNormals() {
         if (this.calcPointNorms) {
             for (int i = 0; i < 3; i++) {
+                Point3d vertex = vertices[i];
+
+                // adjacent triangles are found through the parent, so points don't need to keep a list of them
                 pointNormals[i] = Vector3d.average(
-                    vertices[i].getAdjacentTris().stream()
+                    Arrays.stream(parent.getTriangles())
+                    .filter(t -> t.vertices[0] == vertex || t.vertices[1] == vertex || t.vertices[2] == vertex)
                     .map(t -> (Vector3d) t.getSurfNorm())
                     .toArray(Vector3d[]::new)
                 );
@@ -177,10 +168,22 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
     public Material getMaterial() { return this.parent.getMaterial(); }
 
     /**
-     * Returns the center of this <code>Triangle</code>.
+     * Calculates and returns the center of this <code>Triangle</code> as a <code>Point3d</code>.
      * @return the center
      */
-    public Point3d getCenter() { return this.center; }
+    public Point3d getCenter() {
+        double xTotal = 0;
+        double yTotal = 0;
+        double zTotal = 0;
+
+        for (Point3d p : this.vertices) {
+            xTotal += p.xReal();
+            yTotal += p.yReal();
+            zTotal += p.zReal();
+        }
+
+        return new Point3d(xTotal / 3, yTotal / 3, zTotal / 3);
+    }
 
     /**
      * Returns the direction the <code>Triangle</code> is facing.
@@ -188,9 +191,6 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
      */
     public Vector3d getSurfNorm() { return this.surfNormal; }
 
-    protected boolean isShown() { return this.shown; }
-    protected void setShown(boolean shown) { this.shown = shown; }
-
     protected void flip() {
         for (Vector3d v : pointNormals) {
             v.invert();
@@ -214,7 +214,9 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
         pointNormals[2] = v;
     }
 
-    protected Point3d point3dFromBary(double[] weights) {
+    // moves dest to the point at the given barycentric weights, taken into world space by a shape's model transform,
+    // with X and Y swapped
+    protected void point3dFromBary(double[] weights, Matrix4 model, Point3d dest) {
         Point3d v1 = vrtx1();
         Point3d v2 = vrtx2();
         Point3d v3 = vrtx3();
@@ -223,11 +225,31 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
         double w2 = weights[1];
         double w3 = weights[2];
 
-        double finalY = (v1.xReal() * w1) + (v2.xReal() * w2) + (v3.xReal() * w3);
-        double finalX = (v1.yReal() * w1) + (v2.yReal() * w2) + (v3.yReal() * w3);
-        double finalZ = (v1.zReal() * w1) + (v2.zReal() * w2) + (v3.zReal() * w3);
+        double x = (v1.xReal() * w1) + (v2.xReal() * w2) + (v3.xReal() * w3);
+        double y = (v1.yReal() * w1) + (v2.yReal() * w2) + (v3.yReal() * w3);
+        double z = (v1.zReal() * w1) + (v2.zReal() * w2) + (v3.zReal() * w3);
 
-        return new Point3d(finalX, finalY, finalZ);
+        dest.setX(model.transformRow(1, x, y, z));
+        dest.setY(model.transformRow(0, x, y, z));
+        dest.setZ(model.transformRow(2, x, y, z));
+    }
+
+    // writes the point normal at the given barycentric weights, turned by a shape's model transform, into dest without
+    // normalizing it. the model's scale is always uniform, so it only changes the normal's length
+    protected void normalFromBary(double[] weights, Matrix4 model, double[] dest) {
+        double xTotal = 0;
+        double yTotal = 0;
+        double zTotal = 0;
+
+        for (int i = 0; i < 3; i++) {
+            xTotal += pointNormals[i].x() * weights[i];
+            yTotal += pointNormals[i].y() * weights[i];
+            zTotal += pointNormals[i].z() * weights[i];
+        }
+
+        for (int row = 0; row < 3; row++) {
+            dest[row] = (model.getValue(0, row) * xTotal) + (model.getValue(1, row) * yTotal) + (model.getValue(2, row) * zTotal);
+        }
     }
 
     protected void markForPointNormalCalculation() {
@@ -262,39 +284,6 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
         this.surfNormal.normalize();
     }
 
-    private void updCenter() {
-        double xTotal = 0;
-        double yTotal = 0;
-        double zTotal = 0;
-
-        for (Point3d p : this.vertices) {
-            xTotal += p.xReal();
-            yTotal += p.yReal();
-            zTotal += p.zReal();
-        }
-
-        this.center = new Point3d(xTotal / 3, yTotal / 3, zTotal / 3);
-        // this.center.updRenderCoords(Renderer3d.userCamera);
-    }
-
-    private void updCenterZ() {
-        this.centerZ = (vrtx1().depth() + vrtx2().depth() + vrtx3().depth()) / 3;
-    }
-
-    protected void updateValues() {
-        this.updCenterZ();
-        this.updCenter();
-        this.updateBaryCache();
-        // this.updSurfNorm();
-    }
-
-    protected boolean isFacingViewer() {
-        double firstPart = (vrtx2().xRend() - vrtx1().xRend()) * (vrtx3().yRend() - vrtx1().yRend());
-        double secondPart = (vrtx3().xRend() - vrtx1().xRend()) * (vrtx2().yRend() - vrtx1().yRend());
-
-        return firstPart < secondPart;
-    }
-
     // used for shiftOnX/Y/Z() and translate()
     private void shiftPoints(int axis, double distance) {
         for (Point3d p : this.vertices) {
@@ -313,147 +302,6 @@ public class Triangle implements Comparable<Triangle>, Translatable, Rotatable,
         }
     }
 
-    @Override
-    public int compareTo(Triangle o) {
-        return Double.compare(o.centerZ, this.centerZ);
-    }
-
-    protected void updateBaryCache() {
-        Point3d v1 = vrtx1();
-        Point3d v2 = vrtx2();
-        Point3d v3 = vrtx3();
-
-        this.v2y_minus_v3y = (v2.yRend() - v3.yRend());
-        this.v3x_minus_v2x = (v3.xRend() - v2.xRend());
-
-        this.v3y_minus_v1y = (v3.yRend() - v1.yRend());
-        this.v1x_minus_v3x = (v1.xRend() - v3.xRend());
-
-        this.baryDenominator = (v2y_minus_v3y * v1x_minus_v3x) + (v3x_minus_v2x * (v1.yRend() - v3.yRend()));
-    }
-
-    protected double[] barycentricCoords(double pX, double pY) {
-        // Point3d v1 = vrtx1();
-        // Point3d v2 = vrtx2();
-        Point3d v3 = vrtx3();
-
-        double pX_minus_v3x = pX - v3.xRend();
-        double pY_minus_v3y = pY - v3.yRend();
-
-        // double weight1Numerator = ((v2.yRend() - v3.yRend()) * (pX - v3.xRend())) + ((v3.xRend() - v2.xRend()) * (pY - v3.yRend()));
-        double weight1Numerator = (v2y_minus_v3y * pX_minus_v3x) + (v3x_minus_v2x * pY_minus_v3y);
-
-        // double weight2Numerator = ((v3.yRend() - v1.yRend()) * (pX - v3.xRend())) + ((v1.xRend() - v3.xRend()) * (pY - v3.yRend()));
-        double weight2Numerator = (v3y_minus_v1y * pX_minus_v3x) + (v1x_minus_v3x * pY_minus_v3y);
-
-        double[] weights = new double[3];
-
-        weights[0] = weight1Numerator / baryDenominator;
-        weights[1] = weight2Numerator / baryDenominator;
-        weights[2] = 1 - weights[0] - weights[1];
-
-        return weights;
-    }
-
-    protected boolean overlapsWithRect(int minX, int minY, int maxX, int maxY) {
-        /* Future optimzation: Before anything else, calculate the distance from the center of the triangle
-        to its furthest vertex and the distance from the center of the rectangle to one of its corners. Then,
-        if the distance between the center of each shape is greater than the sum of these two distances, the
-        shapes do not overlap. */
-
-        double[] rectCenter = new double[] {
-            minX + ((maxX-minX)/2), 
-            minY + ((maxY-minY)/2)
-        };
-        
-        double rectCenterDist = Util.distance2D(
-            maxX, maxY,
-            rectCenter[0], rectCenter[1]   
-        );
-
-        double triCenterDist = 0;
-        for (Point3d v : vertices) {
-            double dist = Util.distance2D(
-                center.xRend(), center.yRend(),
-                v.xRend(), v.yRend()
-            );
-
-            if (dist > triCenterDist) {
-                triCenterDist = dist;
-            }
-        }
-
-        if (rectCenterDist + triCenterDist < Util.distance2D(
-            rectCenter[0], rectCenter[1],
-            this.center.xRend(), this.center.yRend()
-        )) {
-            return false;
-        }
-
-        // checking if triangle vertices are contained within the rectangle
-        for (Point3d v : vertices) {
-            if (v.xRend() >= minX &&
-                v.xRend() <= maxX &&
-                v.yRend() >= minY && 
-                v.yRend() <= maxY) {
-                return true;
-            }
-        }
-
-        int[][] rectPoints = new int[][] {
-            {minX, minY},
-            {minX, maxY},
-            {maxX, maxY},
-            {maxX, minY}
-        };
-        
-        // checking if rectangle points are contained within the triangle
-        for (int[] rectCorner : rectPoints) {
-            double[] bary = barycentricCoords(rectCorner[0], rectCorner[1]);
-            
-            if (bary[0] >= 0 && bary[1] >= 0 && bary[2] >= 0) {
-                return true;
-            }
-        }
-
-        // checking if any of the sides overlap
-        for (int triVrtxIndex = 0; triVrtxIndex < 3; triVrtxIndex++) {
-            Line2D triangleSide = new Line2D.Double(
-                vertices[triVrtxIndex].xRend(), vertices[triVrtxIndex].yRend(), 
-                vertices[(triVrtxIndex+1) % 3].xRend(), vertices[(triVrtxIndex+1) % 3].yRend()
-            );
-
-            for (int rectVrtxIndex = 0; rectVrtxIndex < 4; rectVrtxIndex++) {
-                if (triangleSide.intersectsLine(
-                    rectPoints[rectVrtxIndex][0], rectPoints[rectVrtxIndex][1],
-                    rectPoints[(rectVrtxIndex+1) % 3][0], rectPoints[(rectVrtxIndex+1) % 3][1]
-                )) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
-    protected void perspProjectionForPointShadowMap(Camera c) {
-        for (Point3d p : vertices) {
-            p.perspProjectionForPointShadowMap(c);
-        }
-    }
-
-    protected void perspProjection(Camera c) {
-        for (Point3d p : vertices) {
-            p.perspProjection(c);
-        }
-    }
-
-    protected void orthoProjection(Camera c) {
-        for (Point3d p : vertices) {
-            p.orthoProjection(c);
-        }
-    }
-
     @Override
     public void rotate(int axis, double theta, Point3d point) {
         for (Point3d p : vertices) {
@@ -4,6 +4,26 @@ import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 
 class Util {
+    // the Vector API is an incubator module, so it is only present when added with --add-modules jdk.incubator.vector. null
+    // unless the module is present and VectorRaster was compiled from src-vector alongside the rest
+    protected static final VectorDepthTest VECTOR_RASTER = loadVectorRaster();
+
+    protected static boolean useVectorApi(Scene scene) {
+        return VECTOR_RASTER != null && scene.getFlag(SceneFlag.VECTOR_RASTERIZATION) == 1;
+    }
+
+    private static VectorDepthTest loadVectorRaster() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return null;
+        }
+
+        try {
+            return (VectorDepthTest) Class.forName("com.ijurnove.cpu3d.VectorRaster").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
     protected static double clamp(double val, double min, double max) {
         return Math.min(Math.max(val, min), max);
     }
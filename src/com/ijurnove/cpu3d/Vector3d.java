@@ -1,6 +1,4 @@
 package com.ijurnove.cpu3d;
-import static java.lang.Math.cos;
-import static java.lang.Math.sin;
 
 /**
  * A <code>Vector3d</code> represents a direction in 3D space. <code>Vector3d</code>s do not have an origin, and only represent a direction.
@@ -120,51 +118,18 @@ public class Vector3d {
      * @param theta the amount to rotate by
      */
     public void rotate(int axis, double theta) {
-        Matrix rotMatrix;
-        
-        // x axis
-        switch (axis) {
-            case 0 -> rotMatrix = new Matrix(
-                        new double[][] {
-                            new double[] {1, 0, 0},
-                            new double[] {0, cos(theta), -1 * sin(theta)},
-                            new double[] {0, sin(theta), cos(theta)}
-                        }
-                );
-            case 1 -> rotMatrix = new Matrix(
-                        new double[][] {
-                            new double[] {cos(theta), 0, sin(theta)},
-                            new double[] {0, 1, 0},
-                            new double[] {-1 * sin(theta), 0, cos(theta)}
-                        }
-                );
-            case 2 -> rotMatrix = new Matrix(
-                        new double[][] {
-                            new double[] {cos(theta), -1 * sin(theta), 0},
-                            new double[] {sin(theta), cos(theta), 0},
-                            new double[] {0, 0, 1}
-                        }
-                );
-            default -> {
-                rotMatrix = new Matrix(
-                    new double[][] {
-                        {}
-                    }
-                );
-            }
-        }
+        transform(Matrix4.rotation(axis, theta));
+    }
+
+    // multiplies this vector by the top left 3x3 part of a Matrix4, so translation is ignored
+    protected void transform(Matrix4 m) {
+        double newX = (m.getValue(0, 0) * x) + (m.getValue(1, 0) * y) + (m.getValue(2, 0) * z);
+        double newY = (m.getValue(0, 1) * x) + (m.getValue(1, 1) * y) + (m.getValue(2, 1) * z);
+        double newZ = (m.getValue(0, 2) * x) + (m.getValue(1, 2) * y) + (m.getValue(2, 2) * z);
 
-        Matrix finalMatrix = Matrix.multiply(rotMatrix, new Matrix(
-            new double[][] {
-                {x},
-                {y},
-                {z}
-            }
-        ));
-
-        this.x = finalMatrix.getValue(0, 0);
-        this.y = finalMatrix.getValue(0, 1);
-        this.z = finalMatrix.getValue(0, 2);
+        this.x = newX;
+        this.y = newY;
+        this.z = newZ;
     }
 
     /**
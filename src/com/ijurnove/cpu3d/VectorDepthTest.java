@@ -0,0 +1,10 @@
+package com.ijurnove.cpu3d;
+
+// draws the depth of a triangle along one row of a shadow map, testing coverage and depth and storing the closer depths a
+// full vector of pixels at a time. the only implementation, VectorRaster, uses the incubating Vector API and is compiled
+// separately from src-vector, so the rest of the renderer builds without the module
+interface VectorDepthTest {
+    // the triangle is the 9 values in coords starting at t, the map x, y and depth of each vertex. only the pixels from
+    // firstCol to lastCol of the row are read or written
+    void drawRow(double[] coords, int t, int row, int firstCol, int lastCol, double[] depth);
+}
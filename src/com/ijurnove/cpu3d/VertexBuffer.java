@@ -0,0 +1,241 @@
+package com.ijurnove.cpu3d;
+import java.util.IdentityHashMap;
+
+// positions and projected screen coordinates of a set of vertices, kept in flat arrays.
+// Point3d objects are views into a VertexBuffer, so projecting a mesh is one linear pass over its buffer
+class VertexBuffer {
+    // x, y, z of every vertex. a Mesh's vertices are in object space, before any shape's model transform
+    private final double[] positions;
+    // screen x, screen y, depth and w of every vertex projected one at a time. whole meshes are projected into a
+    // ProjectedVertices instead, as any number of shapes can be drawing the same one
+    private final double[] screenCoords;
+
+    // set once the buffer belongs to a Mesh, after which its positions can't change
+    private boolean locked = false;
+
+    private final int size;
+
+    protected VertexBuffer(int size) {
+        this.size = size;
+        this.positions = new double[size * 3];
+        this.screenCoords = new double[size * 4];
+    }
+
+    // moves every vertex used by the triangles into one new buffer. the existing Point3d objects are kept,
+    // and only point at their new place, so anything holding on to them still sees the same vertex
+    protected static VertexBuffer gather(Triangle[] triangles) {
+        IdentityHashMap<Point3d, Point3d> unique = new IdentityHashMap<>();
+        for (Triangle t : triangles) {
+            for (Point3d p : t.getVertices()) {
+                unique.put(p, p);
+            }
+        }
+
+        VertexBuffer buffer = new VertexBuffer(unique.size());
+
+        int index = 0;
+        for (Point3d p : unique.keySet()) {
+            p.moveTo(buffer, index);
+            index++;
+        }
+
+        return buffer;
+    }
+
+    // a new, unlocked buffer with the same values
+    protected VertexBuffer copy() {
+        VertexBuffer copy = new VertexBuffer(size);
+        System.arraycopy(positions, 0, copy.positions, 0, positions.length);
+        System.arraycopy(screenCoords, 0, copy.screenCoords, 0, screenCoords.length);
+        return copy;
+    }
+
+    // one Point3d view for every vertex, in buffer order
+    protected Point3d[] points() {
+        Point3d[] points = new Point3d[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = new Point3d(this, i);
+        }
+        return points;
+    }
+
+    // from now on every position stays where it is
+    protected void lock() {
+        this.locked = true;
+    }
+
+    protected int size() { return this.size; }
+    protected double[] positions() { return this.positions; }
+
+    protected double x(int index) { return positions[index * 3]; }
+    protected double y(int index) { return positions[(index * 3) + 1]; }
+    protected double z(int index) { return positions[(index * 3) + 2]; }
+
+    protected void setPosition(int index, double x, double y, double z) {
+        checkUnlocked();
+
+        positions[index * 3] = x;
+        positions[(index * 3) + 1] = y;
+        positions[(index * 3) + 2] = z;
+    }
+
+    protected void setAxis(int index, int axis, double value) {
+        checkUnlocked();
+        positions[(index * 3) + axis] = value;
+    }
+
+    protected double getAxis(int index, int axis) { return positions[(index * 3) + axis]; }
+
+    protected double xRend(int index) { return screenCoords[index * 4]; }
+    protected double yRend(int index) { return screenCoords[(index * 4) + 1]; }
+    protected double depth(int index) { return screenCoords[(index * 4) + 2]; }
+    protected double wRend(int index) { return screenCoords[(index * 4) + 3]; }
+
+    protected void setRender(int index, double x, double y, double depth, double w) {
+        screenCoords[index * 4] = x;
+        screenCoords[(index * 4) + 1] = y;
+        screenCoords[(index * 4) + 2] = depth;
+        screenCoords[(index * 4) + 3] = w;
+    }
+
+    protected void transform(int index, Matrix4 m) {
+        checkUnlocked();
+        m.transformPosition(positions, index * 3);
+    }
+
+    private void checkUnlocked() {
+        if (locked) {
+            throw new RuntimeException("The vertices of a Mesh can't be moved once it is built, move the Shape3d drawing it instead");
+        }
+    }
+
+    // projects every vertex into screen, 4 values per vertex. modelView takes a vertex straight to view space, and like
+    // the view matrix it includes the X and Y swap
+    protected void perspProjection(Camera cam, Matrix4 modelView, double[] screen) {
+        double tanFov = Math.tan(Math.toRadians(cam.getFov()) / 2);
+        Scene scene = cam.getParent();
+
+        for (int i = 0; i < size; i++) {
+            int r = i * 4;
+
+            loadRenderCoords(positions, i, false, screen);
+            modelView.transformPoint(screen, r);
+
+            scaleToDepth(screen, r);
+            scaleFOV(screen, r, tanFov);
+            scaleToScreen(screen, r, scene);
+        }
+    }
+
+    // as above, for a point light's shadow map. modelView works on vertices with X and Y swapped, which is done by
+    // swapping the first two rows of the model transform before the camera's look at matrix is applied
+    protected void perspProjectionForPointShadowMap(Camera cam, Matrix4 modelView, double[] screen) {
+        double tanFov = Math.tan(Math.toRadians(cam.getFov()) / 2);
+
+        for (int i = 0; i < size; i++) {
+            int r = i * 4;
+
+            loadRenderCoords(positions, i, false, screen);
+            modelView.transformPoint(screen, r);
+            swapRenderXY(screen, r);
+
+            scaleToDepth(screen, r);
+            scaleFOV(screen, r, tanFov);
+            scaleToShadowMap(screen, r, cam);
+        }
+    }
+
+    protected void orthoProjection(Camera cam, Matrix4 modelView, double[] screen) {
+        for (int i = 0; i < size; i++) {
+            int r = i * 4;
+
+            loadRenderCoords(positions, i, false, screen);
+            modelView.transformPoint(screen, r);
+
+            scaleToShadowMap(screen, r, cam);
+        }
+    }
+
+    protected void perspProjection(Camera cam, Matrix4 view, int index) {
+        int r = index * 4;
+
+        // the view matrix already includes the X and Y swap
+        loadRenderCoords(positions, index, false, screenCoords);
+        view.transformPoint(screenCoords, r);
+
+        scaleToDepth(screenCoords, r);
+        scaleFOV(screenCoords, r, Math.tan(Math.toRadians(cam.getFov()) / 2));
+        scaleToScreen(screenCoords, r, cam.getParent());
+    }
+
+    protected void perspProjectionForPointShadowMap(Camera cam, Matrix4 view, int index) {
+        int r = index * 4;
+
+        // shadow map cameras work with X and Y swapped
+        loadRenderCoords(positions, index, true, screenCoords);
+        view.transformPoint(screenCoords, r);
+        swapRenderXY(screenCoords, r);
+
+        scaleToDepth(screenCoords, r);
+        scaleFOV(screenCoords, r, Math.tan(Math.toRadians(cam.getFov()) / 2));
+        scaleToShadowMap(screenCoords, r, cam);
+    }
+
+    protected void orthoProjection(Camera cam, Matrix4 view, int index) {
+        int r = index * 4;
+
+        loadRenderCoords(positions, index, false, screenCoords);
+        view.transformPoint(screenCoords, r);
+
+        scaleToShadowMap(screenCoords, r, cam);
+    }
+
+    // copies a position into its screen coordinates, ready to be transformed
+    private static void loadRenderCoords(double[] positions, int index, boolean swapXY, double[] screen) {
+        int p = index * 3;
+        int r = index * 4;
+
+        screen[r] = swapXY ? positions[p + 1] : positions[p];
+        screen[r + 1] = swapXY ? positions[p] : positions[p + 1];
+        screen[r + 2] = positions[p + 2];
+        screen[r + 3] = 1;
+    }
+
+    private static void swapRenderXY(double[] screen, int r) {
+        double hold = screen[r];
+        screen[r] = screen[r + 1];
+        screen[r + 1] = hold;
+    }
+
+    // scales screen coordinates to depth - call 2nd
+    private static void scaleToDepth(double[] screen, int r) {
+        screen[r + 2] *= -1;
+        double z = screen[r + 2];
+        if (z == 0) {
+            z = 1;
+        }
+        screen[r] /= z;
+        screen[r + 1] /= z;
+    }
+
+    // scales coordinates with fov - call 3rd
+    private static void scaleFOV(double[] screen, int r, double tanFov) {
+        screen[r] /= tanFov;
+        screen[r + 1] /= tanFov;
+    }
+
+    // sets coordinates to screen positions - call 4th
+    private static void scaleToScreen(double[] screen, int r, Scene scene) {
+        screen[r] = (screen[r] * scene.getPixelWidth()) + (scene.getPixelWidth() / 2);
+        screen[r + 1] = (screen[r + 1] * scene.getPixelHeight() * (-1 - (scene.getPixelHeight() / scene.getPixelHeight()))) + (scene.getPixelHeight() / 2);
+    }
+
+    private static void scaleToBounds(double[] screen, int r, int width, int height) {
+        screen[r] = (screen[r] * width) + (width / 2);
+        screen[r + 1] = (screen[r + 1] * height) + (height / 2);
+    }
+
+    private static void scaleToShadowMap(double[] screen, int r, Camera cam) {
+        scaleToBounds(screen, r, (int) cam.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_ACROSS), (int) cam.getParent().getInitFlag(SceneInitFlag.SHADOW_RESOLUTION_UP));
+    }
+}